@@ -0,0 +1,47 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of removing hidden commands from the commands sent to a player
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandSendBenchmark {
+
+    /**
+     * The player's hidden commands are already known, like every resend after the first
+     */
+    @Benchmark
+    public Set<String> cached(ListenerState state){
+        Set<String> names = new HashSet<>(state.commandNames);
+        state.listener.onPlayerCommandSend(new PlayerCommandSendEvent(state.player, names));
+        return names;
+    }
+
+    /**
+     * The player's hidden commands have to be found again, like the first send after a reload
+     */
+    @Benchmark
+    public Set<String> afterReload(ListenerState state){
+        state.listener.reload(state.tree);
+        Set<String> names = new HashSet<>(state.commandNames);
+        state.listener.onPlayerCommandSend(new PlayerCommandSendEvent(state.player, names));
+        return names;
+    }
+
+}
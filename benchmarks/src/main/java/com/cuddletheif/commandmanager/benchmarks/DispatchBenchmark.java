@@ -0,0 +1,64 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking a command in the preprocess listeners
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    /**
+     * Events reused for every command so only the listener is measured
+     */
+    @State(Scope.Thread)
+    public static class Events {
+
+        public PlayerCommandPreprocessEvent playerEvent;
+        public ServerCommandEvent serverEvent;
+        public int next;
+
+        @Setup
+        public void setup(ListenerState state){
+            this.playerEvent = new PlayerCommandPreprocessEvent(state.player, state.messages[0]);
+            this.serverEvent = new ServerCommandEvent(Stubs.console(), state.messages[0].substring(1));
+        }
+
+    }
+
+    @Benchmark
+    public boolean playerCommand(ListenerState state, Events events){
+        PlayerCommandPreprocessEvent event = events.playerEvent;
+        event.setMessage(state.messages[events.next++ & (ListenerState.INPUTS-1)]);
+        event.setCancelled(false);
+        state.listener.onPreprocessComand(event);
+        return event.isCancelled();
+    }
+
+    @Benchmark
+    public boolean serverCommand(ListenerState state, Events events){
+        ServerCommandEvent event = events.serverEvent;
+        event.setCommand(state.messages[events.next++ & (ListenerState.INPUTS-1)].substring(1));
+        event.setCancelled(false);
+        state.listener.onPreprocessComand(event);
+        return event.isCancelled();
+    }
+
+}
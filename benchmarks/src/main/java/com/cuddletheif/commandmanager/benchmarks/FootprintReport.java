@@ -0,0 +1,62 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.util.Locale;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.cuddletheif.commandmanager.CommandTree;
+
+/**
+ * Reports the heap kept by compiled commands for each command and sub command in huge generated configs
+ * 
+ * Run with the sizes to report, like: java -cp benchmarks.jar com.cuddletheif.commandmanager.benchmarks.FootprintReport 10000 100000
+ */
+public final class FootprintReport {
+
+    // Levels of sub commands under each top command and sub commands of each command above the last level, the same as the stress benchmark
+    private static final int DEPTH = 2;
+    private static final int FANOUT = 3;
+
+    private FootprintReport(){}
+
+    public static void main(String[] args) throws InvalidConfigurationException {
+        int[] sizes = args.length>0 ? new int[args.length] : new int[]{10000, 100000};
+        for(int i=0;i<args.length;i++)
+            sizes[i] = Integer.parseInt(args[i]);
+        int aliases = Integer.getInteger("aliases", 4);
+        System.out.println("nodes, aliases, retained bytes, bytes per node");
+        for(int nodes : sizes){
+
+            // Measure the heap before and after compiling, keeping the config so only the compiled commands are counted
+            int commands = Math.max(1, nodes/13);
+            YamlConfiguration config = SyntheticConfig.generate(commands, DEPTH, FANOUT, aliases);
+            long before = usedHeap();
+            CommandTree tree = CommandTree.load(config);
+            long after = usedHeap();
+            int count = commands*13;
+            System.out.println(count+", "+aliases+", "+(after-before)+", "+String.format(Locale.ROOT, "%.1f", (after-before)/(double) count));
+
+            // Keep both alive until measured
+            if(tree.getCommands().length!=commands || config.getKeys(false).isEmpty())
+                throw new IllegalStateException("Not every command was compiled");
+
+        }
+    }
+
+    /**
+     * Gets the heap in use after collecting the garbage
+     * 
+     * @return the bytes in use
+     */
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for(int i=0;i<5;i++){
+            System.gc();
+            used = Math.min(used, runtime.totalMemory()-runtime.freeMemory());
+        }
+        return used;
+    }
+
+}
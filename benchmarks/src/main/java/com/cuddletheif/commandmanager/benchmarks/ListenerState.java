@@ -0,0 +1,89 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.cuddletheif.commandmanager.AuditLog;
+import com.cuddletheif.commandmanager.CommandListener;
+import com.cuddletheif.commandmanager.CommandTree;
+import com.cuddletheif.commandmanager.DispatchQueue;
+import com.cuddletheif.commandmanager.ListenerMetrics;
+
+/**
+ * A listener loaded with a generated config and the inputs to run against it
+ */
+@State(Scope.Benchmark)
+public class ListenerState {
+
+    // Number of generated inputs, a power of two so they can be cycled with a mask
+    public static final int INPUTS = 1024;
+
+    @Param({"10", "300"})
+    public int commands;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param({"3"})
+    public int fanout;
+
+    @Param({"0", "2"})
+    public int aliases;
+
+    // The compiled generated config
+    public CommandTree tree;
+
+    // The listener using the tree
+    public CommandListener listener;
+
+    // A player with half of the generated permissions
+    public Player player;
+
+    // Commands to run, each with the leading slash
+    public String[] messages;
+
+    // Tab buffers ending part way through a command, each with the leading slash
+    public String[] buffers;
+
+    // The names the server would send the player
+    public List<String> commandNames;
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidConfigurationException {
+
+        // Compile the config and start a listener with it
+        Stubs.server();
+        this.tree = CommandTree.load(SyntheticConfig.generate(this.commands, this.depth, this.fanout, this.aliases));
+        this.listener = new CommandListener(this.tree, new DispatchQueue(null), new ListenerMetrics(), new AuditLog(Paths.get("audit.log"), Logger.getLogger("audit")));
+
+        // A player with every other permission
+        Set<String> permissions = new HashSet<>();
+        for(int i=0;i<SyntheticConfig.PERMISSIONS;i+=2)
+            permissions.add("bench.perm"+i);
+        this.player = Stubs.player("BenchPlayer", permissions);
+
+        // The inputs
+        String[] lines = SyntheticConfig.commandLines(INPUTS, this.commands, this.depth, this.fanout, 42);
+        this.messages = new String[INPUTS];
+        this.buffers = new String[INPUTS];
+        for(int i=0;i<INPUTS;i++){
+            this.messages[i] = "/"+lines[i];
+            int space = lines[i].lastIndexOf(' ');
+            this.buffers[i] = "/"+(space==-1 ? lines[i]+" " : lines[i].substring(0, space+1)+lines[i].charAt(space+1));
+        }
+        this.commandNames = SyntheticConfig.commandNames(this.commands, this.aliases, 200);
+
+    }
+
+}
@@ -0,0 +1,494 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.bukkit.event.server.TabCompleteEvent;
+
+import com.cuddletheif.commandmanager.AuditLog;
+import com.cuddletheif.commandmanager.CommandListener;
+import com.cuddletheif.commandmanager.CommandTree;
+import com.cuddletheif.commandmanager.DispatchQueue;
+import com.cuddletheif.commandmanager.LatencyHistogram;
+import com.cuddletheif.commandmanager.ListenerMetrics;
+
+/**
+ * Replays a trace of commands and tab buffers from many senders on a pool of threads while the commands are reloaded,
+ * reporting the throughput and latencies and failing if any decision differs from a single threaded run or anything throws
+ * 
+ * Run with a trace file or none to replay a generated one, like: java -Dthreads=8 -Dseconds=10 -cp benchmarks.jar com.cuddletheif.commandmanager.benchmarks.ReplayHarness trace.txt
+ * 
+ * Each line of a trace is "command <sender> /text" or "tab <sender> /buffer" (CONSOLE is the console), and the lines of an audit log are replayed as its commands.
+ * The generated config is reloaded in turn with a copy that disables and hides other commands, or set -Dconfig to a config file to reload it unchanged.
+ * Every thread counts as the main thread, so permissions are also refreshed concurrently.
+ * Limits in the config make decisions depend on timing so configs with them can report inconsistent decisions.
+ */
+public final class ReplayHarness {
+
+    // Levels of sub commands under each top command, sub commands of each command above the last level and extra names of every command in the generated config
+    private static final int DEPTH = 2;
+    private static final int FANOUT = 3;
+    private static final int ALIASES = 2;
+
+    // Length of the generated trace
+    private static final int GENERATED_EVENTS = 4096;
+
+    // Seed for the generated trace
+    private static final long SEED = 42;
+
+    // The completions the server would offer before the listener edits them
+    private static final List<String> SERVER_COMPLETIONS = Arrays.asList("sub0", "sub1", "sub2", "other");
+
+    // Most inconsistent decisions and exceptions described at the end
+    private static final int EXAMPLES = 10;
+
+    private ReplayHarness(){}
+
+    public static void main(String[] args) throws IOException, InvalidConfigurationException, InterruptedException {
+        int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+        int warmup = Integer.getInteger("warmup", 2);
+        int seconds = Integer.getInteger("seconds", 10);
+        int reloadMillis = Integer.getInteger("reload", 10);
+        int commands = Integer.getInteger("commands", 300);
+        int senders = Integer.getInteger("senders", 200);
+        String configFile = System.getProperty("config");
+        Stubs.server();
+
+        // The versions of the config reloaded in turn
+        List<YamlConfiguration> versions = new ArrayList<>();
+        if(configFile!=null){
+            YamlConfiguration config = new YamlConfiguration();
+            config.load(new File(configFile));
+            versions.add(config);
+        }
+        else{
+            versions.add(SyntheticConfig.generate(commands, DEPTH, FANOUT, ALIASES));
+            versions.add(changed(commands));
+        }
+
+        // The trace and the decisions of each version of the config made one at a time, every listener sharing one audit log that's never turned on
+        Map<String, CommandSender> senderNames = new HashMap<>();
+        List<Entry> trace = args.length>0 ? read(Paths.get(args[0]), senderNames) : generate(commands, senders, senderNames);
+        AuditLog auditLog = new AuditLog(Paths.get("audit.log"), Logger.getLogger("audit"));
+        Object[][] expected = new Object[versions.size()][trace.size()];
+        for(int v=0;v<versions.size();v++){
+            CommandListener listener = listener(CommandTree.load(versions.get(v)), auditLog);
+            for(int i=0;i<trace.size();i++)
+                expected[v][i] = replay(listener, trace.get(i));
+        }
+
+        // Replay the trace on every thread while this thread reloads the commands like the main thread would
+        CommandListener listener = listener(CommandTree.load(versions.get(0)), auditLog);
+        Replay replay = new Replay(listener, trace, expected);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for(int t=0;t<threads;t++){
+            int first = t;
+            pool.execute(() -> replay.run(first, threads));
+        }
+        LatencyHistogram reloads = new LatencyHistogram();
+        long measured = 0;
+        try{
+            long start = System.nanoTime();
+            long measureStart = start+TimeUnit.SECONDS.toNanos(warmup);
+            long end = measureStart+TimeUnit.SECONDS.toNanos(seconds);
+            while(System.nanoTime()<end){
+                Thread.sleep(reloadMillis>0 ? reloadMillis : 100);
+                if(!replay.measuring && System.nanoTime()>=measureStart){
+                    replay.measuring = true;
+                    measured = System.nanoTime();
+                }
+                if(reloadMillis>0){
+                    // Reload n uses version n of the config in turn, counted before and after the swap so the threads know which versions they could have seen
+                    long reload = replay.started+1;
+                    long reloadStart = System.nanoTime();
+                    CommandTree next = CommandTree.load(versions.get((int) (reload%versions.size())), listener.getCommands());
+                    replay.started = reload;
+                    listener.reload(next);
+                    replay.finished = reload;
+                    if(replay.measuring)
+                        reloads.record(System.nanoTime()-reloadStart);
+                }
+            }
+        } finally {
+            replay.running = false;
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            auditLog.close();
+        }
+        measured = System.nanoTime()-measured;
+
+        // Report the throughput and latencies
+        long events = replay.commands.getCount()+replay.tabs.getCount();
+        System.out.println("Replayed "+trace.size()+" events from "+senderNames.size()+" senders on "+threads+" threads for "+format(measured)+" with "+reloads.getCount()+" reloads of "+versions.size()+" config versions");
+        System.out.println("Throughput: "+String.format(Locale.ROOT, "%.0f", events/(measured/1_000_000_000.0))+" events/s");
+        System.out.println("Commands: "+describe(replay.commands));
+        System.out.println("Tab buffers: "+describe(replay.tabs));
+        System.out.println("Reloads: "+describe(reloads));
+
+        // Count the events that would be caught deciding with the wrong version
+        int differing = 0;
+        for(int i=0;i<trace.size();i++)
+            if(!expected[0][i].equals(expected[versions.size()-1][i]))
+                differing++;
+        System.out.println("Inconsistent decisions: "+replay.inconsistent.sum()+" (The config versions decide "+differing+" of the events differently)");
+        System.out.println("Exceptions: "+replay.exceptions.sum());
+
+        // Fail if anything went wrong
+        if(replay.inconsistent.sum()>0 || replay.exceptions.sum()>0){
+            for(String example : replay.examples)
+                System.out.println("  "+example);
+            Throwable first = replay.firstException;
+            if(first!=null)
+                first.printStackTrace();
+            throw new IllegalStateException(replay.inconsistent.sum()+" inconsistent decisions and "+replay.exceptions.sum()+" exceptions");
+        }
+    }
+
+    /**
+     * Creates a listener with the given commands
+     * 
+     * @param commands The compiled commands
+     * @param auditLog The audit log shared by every listener
+     * @return the listener
+     */
+    private static CommandListener listener(CommandTree commands, AuditLog auditLog){
+        return new CommandListener(commands, new DispatchQueue(null), new ListenerMetrics(), auditLog);
+    }
+
+    /**
+     * Replays one event of the trace
+     * 
+     * @param listener The listener to replay it on
+     * @param entry The event
+     * @return the decision, if a command was cancelled or the completions of a tab buffer
+     */
+    private static Object replay(CommandListener listener, Entry entry){
+
+        // Tab buffers are completed off the main thread when the commands decide them, otherwise by the normal listener
+        if(entry.tab){
+            List<String> completions = listener.completeAsync(entry.sender, entry.text);
+            if(completions==null){
+                TabCompleteEvent event = new TabCompleteEvent(entry.sender, entry.text, new ArrayList<>(SERVER_COMPLETIONS));
+                listener.onTabComplete(event);
+                completions = event.getCompletions();
+            }
+            return completions;
+        }
+
+        // Commands of players and the console
+        if(entry.sender instanceof Player){
+            PlayerCommandPreprocessEvent event = new PlayerCommandPreprocessEvent((Player) entry.sender, entry.text);
+            listener.onPreprocessComand(event);
+            return event.isCancelled();
+        }
+        ServerCommandEvent event = new ServerCommandEvent(entry.sender, entry.text);
+        listener.onPreprocessComand(event);
+        return event.isCancelled();
+
+    }
+
+    /**
+     * Generates a copy of the generated config with other commands disabled and hiding their sub commands
+     * 
+     * @param commands Number of top commands
+     * @return the changed config
+     */
+    private static YamlConfiguration changed(int commands){
+        YamlConfiguration config = SyntheticConfig.generate(commands, DEPTH, FANOUT, ALIASES);
+        ConfigurationSection cmdSection = config.getConfigurationSection("commands");
+        for(int i=0;i<commands;i++){
+            ConfigurationSection section = cmdSection.getConfigurationSection("cmd"+i);
+            if(i%7==0)
+                section.set("disabled", !section.getBoolean("disabled"));
+            if(i%11==0)
+                section.set("hide-sub", !section.getBoolean("hide-sub"));
+        }
+        return config;
+    }
+
+    /**
+     * Generates a trace against the generated config, half commands and half tab buffers ending part way through a command
+     * 
+     * @param commands Number of top commands in the config
+     * @param senders Number of players sending them
+     * @param senderNames The senders by name to add the players to
+     * @return the trace
+     */
+    private static List<Entry> generate(int commands, int senders, Map<String, CommandSender> senderNames){
+        Random random = new Random(SEED);
+        List<Entry> trace = new ArrayList<>(GENERATED_EVENTS);
+        for(String line : SyntheticConfig.commandLines(GENERATED_EVENTS, commands, DEPTH, FANOUT, SEED)){
+            CommandSender sender = player("Player"+random.nextInt(senders), senderNames);
+            if(random.nextInt(50)==0)
+                trace.add(new Entry(Stubs.console(), false, line));
+            else if(random.nextBoolean()){
+                int space = line.lastIndexOf(' ');
+                trace.add(new Entry(sender, true, "/"+(space==-1 ? line+" " : line.substring(0, space+1)+line.charAt(space+1))));
+            }
+            else
+                trace.add(new Entry(sender, false, "/"+line));
+        }
+        return trace;
+    }
+
+    /**
+     * Reads a trace file or audit log
+     * 
+     * @param file The file to read
+     * @param senderNames The senders by name to add the players to
+     * @return the trace
+     * @throws IOException If the file can't be read
+     */
+    private static List<Entry> read(Path file, Map<String, CommandSender> senderNames) throws IOException{
+        List<Entry> trace = new ArrayList<>();
+        for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+
+            // Lines of an audit log start with their time and only the ones with commands are replayed
+            if(line.trim().isEmpty() || line.startsWith("#"))
+                continue;
+            if(line.startsWith("[")){
+                Entry entry = fromAuditLog(line, senderNames);
+                if(entry!=null)
+                    trace.add(entry);
+                continue;
+            }
+
+            // Lines of a trace
+            String[] parts = line.split(" ", 3);
+            if(parts.length<3 || !(parts[0].equals("command") || parts[0].equals("tab")))
+                throw new IllegalArgumentException("Invalid trace line: "+line);
+            trace.add(entry(parts[1], parts[0].equals("tab"), parts[2], senderNames));
+
+        }
+        if(trace.isEmpty())
+            throw new IllegalArgumentException("The trace "+file+" has no commands");
+        return trace;
+    }
+
+    /**
+     * Gets the command of a line of an audit log
+     * 
+     * @param line The line, like "[time] name: /text (outcome...)"
+     * @param senderNames The senders by name to add the players to
+     * @return the command, null if the line isn't a command
+     */
+    private static Entry fromAuditLog(String line, Map<String, CommandSender> senderNames){
+        int close = line.indexOf("] ");
+        if(close==-1)
+            return null;
+        String rest = line.substring(close+2);
+        boolean console = rest.startsWith("(console) ");
+        if(console)
+            rest = rest.substring("(console) ".length());
+        int colon = rest.indexOf(": ");
+        int outcome = Math.max(rest.lastIndexOf(" (allowed"), Math.max(rest.lastIndexOf(" (blocked"), rest.lastIndexOf(" (rate limited")));
+        if(colon==-1 || outcome<colon)
+            return null;
+        return entry(console ? "CONSOLE" : rest.substring(0, colon), false, rest.substring(colon+2, outcome), senderNames);
+    }
+
+    /**
+     * Creates an event of a trace
+     * 
+     * @param name The name of the sender, CONSOLE for the console
+     * @param tab If it's a tab buffer
+     * @param text The command or buffer
+     * @param senderNames The senders by name to add the player to
+     * @return the event
+     */
+    private static Entry entry(String name, boolean tab, String text, Map<String, CommandSender> senderNames){
+        if(name.equals("CONSOLE"))
+            return new Entry(Stubs.console(), tab, tab || !text.startsWith("/") ? text : text.substring(1));
+        return new Entry(player(name, senderNames), tab, text.startsWith("/") ? text : "/"+text);
+    }
+
+    /**
+     * Gets the stub player of a name, with the generated permissions picked by the name so players differ
+     * 
+     * @param name The name of the player
+     * @param senderNames The senders by name to add the player to
+     * @return the player
+     */
+    private static CommandSender player(String name, Map<String, CommandSender> senderNames){
+        return senderNames.computeIfAbsent(name, k -> {
+            Set<String> permissions = new HashSet<>();
+            int bits = k.hashCode();
+            for(int i=0;i<SyntheticConfig.PERMISSIONS;i++)
+                if((bits>>>i & 1)!=0)
+                    permissions.add("bench.perm"+i);
+            return Stubs.player(k, permissions);
+        });
+    }
+
+    /**
+     * Describes the latencies of a histogram
+     * 
+     * @param histogram The histogram to describe
+     * @return the count, mean, percentiles and max
+     */
+    private static String describe(LatencyHistogram histogram){
+        return histogram.getCount()+" calls, mean "+format(histogram.getMean())+", p50 "+format(histogram.getPercentile(0.5))
+            +", p99 "+format(histogram.getPercentile(0.99))+", p99.9 "+format(histogram.getPercentile(0.999))+", max "+format(histogram.getMax());
+    }
+
+    /**
+     * Formats nanoseconds in the most readable unit
+     * 
+     * @param nanos The time in nanoseconds
+     * @return the formatted time
+     */
+    private static String format(long nanos){
+        if(nanos<10_000)
+            return nanos+"ns";
+        if(nanos<10_000_000)
+            return String.format(Locale.ROOT, "%.1fus", nanos/1_000.0);
+        if(nanos<10_000_000_000L)
+            return String.format(Locale.ROOT, "%.1fms", nanos/1_000_000.0);
+        return String.format(Locale.ROOT, "%.1fs", nanos/1_000_000_000.0);
+    }
+
+    /**
+     * One command or tab buffer of a trace
+     */
+    private static final class Entry {
+
+        // Who sent it
+        private final CommandSender sender;
+
+        // If it's a tab buffer instead of a command
+        private final boolean tab;
+
+        // The command or buffer, with the leading slash for players
+        private final String text;
+
+        private Entry(CommandSender sender, boolean tab, String text){
+            this.sender = sender;
+            this.tab = tab;
+            this.text = text;
+        }
+
+    }
+
+    /**
+     * The state shared by the threads replaying a trace
+     */
+    private static final class Replay {
+
+        // The listener replayed on
+        private final CommandListener listener;
+
+        // The trace and the decisions of each version of the config
+        private final List<Entry> trace;
+        private final Object[][] expected;
+
+        // The latencies once warmed up
+        private final LatencyHistogram commands = new LatencyHistogram();
+        private final LatencyHistogram tabs = new LatencyHistogram();
+
+        // What went wrong
+        private final LongAdder inconsistent = new LongAdder();
+        private final LongAdder exceptions = new LongAdder();
+        private final Queue<String> examples = new ConcurrentLinkedQueue<>();
+        private volatile Throwable firstException;
+
+        // If the threads should keep going and record their latencies
+        private volatile boolean running = true;
+        private volatile boolean measuring;
+
+        // The number of reloads started and finished, reload n swapping in version n of the config in turn
+        private volatile long started;
+        private volatile long finished;
+
+        private Replay(CommandListener listener, List<Entry> trace, Object[][] expected){
+            this.listener = listener;
+            this.trace = trace;
+            this.expected = expected;
+        }
+
+        /**
+         * Replays every event of the trace a thread is given over and over until stopped
+         * 
+         * @param first The index of the thread's first event
+         * @param stride The number of threads, each replaying every stride-th event
+         */
+        private void run(int first, int stride){
+            int size = this.trace.size();
+            for(int i=first%size;this.running;i=(i+stride)%size){
+                Entry entry = this.trace.get(i);
+                long from = this.finished;
+                long start = System.nanoTime();
+                try{
+                    Object decision = replay(this.listener, entry);
+                    long nanos = System.nanoTime()-start;
+                    long to = this.started;
+                    if(this.measuring)
+                        (entry.tab ? this.tabs : this.commands).record(nanos);
+                    if(!this.isExpected(i, decision, from, to)){
+                        this.inconsistent.increment();
+                        this.example((entry.tab ? "Tab " : "Command ")+entry.text+" of "+entry.sender.getName()+" decided "+decision);
+                    }
+                } catch (Throwable e) {
+                    this.exceptions.increment();
+                    if(this.firstException==null)
+                        this.firstException = e;
+                    this.example((entry.tab ? "Tab " : "Command ")+entry.text+" of "+entry.sender.getName()+" threw "+e);
+                }
+            }
+        }
+
+        /**
+         * Checks if a decision is the one made by a version of the config that was in use at some point while it was decided
+         * 
+         * @param index The index of the event
+         * @param decision The decision made
+         * @param from The reloads finished before the event was replayed, its version was in use at the start
+         * @param to The reloads started by the end, its version was the last that could have been swapped in
+         * @return if one of those versions makes the same decision
+         */
+        private boolean isExpected(int index, Object decision, long from, long to){
+            for(long reload=from;reload<=to && reload<from+this.expected.length;reload++)
+                if(this.expected[(int) (reload%this.expected.length)][index].equals(decision))
+                    return true;
+            return false;
+        }
+
+        /**
+         * Keeps a description of something that went wrong if there aren't enough yet
+         * 
+         * @param example The description
+         */
+        private void example(String example){
+            if(this.examples.size()<EXAMPLES)
+                this.examples.add(example);
+        }
+
+    }
+
+}
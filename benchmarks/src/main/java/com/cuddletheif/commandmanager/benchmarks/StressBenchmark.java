@@ -0,0 +1,176 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.bukkit.event.server.TabCompleteEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cuddletheif.commandmanager.AuditLog;
+import com.cuddletheif.commandmanager.CommandListener;
+import com.cuddletheif.commandmanager.CommandTree;
+import com.cuddletheif.commandmanager.DispatchQueue;
+import com.cuddletheif.commandmanager.ListenerMetrics;
+
+/**
+ * Every listener and a reload against configs as big as ones generated for every command on a server (10k to 100k commands and sub commands with many aliases)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StressBenchmark {
+
+    // Levels of sub commands under each top command and sub commands of each command above the last level
+    private static final int DEPTH = 2;
+    private static final int FANOUT = 3;
+
+    /**
+     * A listener loaded with a huge generated config and the inputs to run against it
+     */
+    @State(Scope.Benchmark)
+    public static class StressState {
+
+        @Param({"10000", "100000"})
+        public int nodes;
+
+        @Param({"4"})
+        public int aliases;
+
+        // The generated config and its compiled tree
+        public YamlConfiguration config;
+        public CommandTree tree;
+
+        // The listener using the tree and its audit log
+        public CommandListener listener;
+        public AuditLog auditLog;
+
+        // A player with half of the generated permissions
+        public Player player;
+
+        // Commands to run and tab buffers, each with the leading slash
+        public String[] messages;
+        public String[] buffers;
+
+        // The names the server would send the player
+        public List<String> commandNames;
+
+        // Top commands in the config, each with three levels of sub commands
+        public int commands;
+
+        @Setup(Level.Trial)
+        public void setup() throws InvalidConfigurationException {
+
+            // Each top command has 1+3+9 commands under it
+            Stubs.server();
+            this.commands = Math.max(1, this.nodes/13);
+            this.config = SyntheticConfig.generate(this.commands, DEPTH, FANOUT, this.aliases);
+            this.tree = CommandTree.load(this.config);
+            this.auditLog = new AuditLog(Paths.get("audit.log"), Logger.getLogger("audit"));
+            this.listener = new CommandListener(this.tree, new DispatchQueue(null), new ListenerMetrics(), this.auditLog);
+
+            // A player with every other permission
+            Set<String> permissions = new HashSet<>();
+            for(int i=0;i<SyntheticConfig.PERMISSIONS;i+=2)
+                permissions.add("bench.perm"+i);
+            this.player = Stubs.player("StressPlayer", permissions);
+
+            // The inputs
+            String[] lines = SyntheticConfig.commandLines(ListenerState.INPUTS, this.commands, DEPTH, FANOUT, 42);
+            this.messages = new String[ListenerState.INPUTS];
+            this.buffers = new String[ListenerState.INPUTS];
+            for(int i=0;i<ListenerState.INPUTS;i++){
+                this.messages[i] = "/"+lines[i];
+                int space = lines[i].lastIndexOf(' ');
+                this.buffers[i] = "/"+(space==-1 ? lines[i]+" " : lines[i].substring(0, space+1)+lines[i].charAt(space+1));
+            }
+            this.commandNames = SyntheticConfig.commandNames(this.commands, this.aliases, 200);
+
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(){
+            this.auditLog.close();
+        }
+
+    }
+
+    /**
+     * The position in the inputs of each thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        public int next;
+    }
+
+    /**
+     * Compiling the whole config, like the first load
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CommandTree compile(StressState state) throws InvalidConfigurationException{
+        return CommandTree.load(state.config);
+    }
+
+    /**
+     * Reloading the same config, reusing every command
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CommandTree reload(StressState state) throws InvalidConfigurationException{
+        return CommandTree.load(state.config, state.tree);
+    }
+
+    @Benchmark
+    public boolean playerCommand(StressState state, Cursor cursor){
+        PlayerCommandPreprocessEvent event = new PlayerCommandPreprocessEvent(state.player, state.messages[cursor.next++ & (ListenerState.INPUTS-1)]);
+        state.listener.onPreprocessComand(event);
+        return event.isCancelled();
+    }
+
+    @Benchmark
+    public List<String> tabComplete(StressState state, Cursor cursor){
+        List<String> completions = new ArrayList<>();
+        for(int i=0;i<FANOUT;i++)
+            completions.add("sub"+i);
+        TabCompleteEvent event = new TabCompleteEvent(state.player, state.buffers[cursor.next++ & (ListenerState.INPUTS-1)], completions);
+        state.listener.onTabComplete(event);
+        return event.getCompletions();
+    }
+
+    /**
+     * Sending the player the names of every command on the server after a reload, so their hidden commands are found again
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Set<String> commandSend(StressState state){
+        state.listener.reload(state.tree);
+        Set<String> names = new HashSet<>(state.commandNames);
+        state.listener.onPlayerCommandSend(new PlayerCommandSendEvent(state.player, names));
+        return names;
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * Stand in server, console and players so the listeners can run without a server
+ * 
+ * Every method not handled here returns null, false or 0
+ */
+public final class Stubs {
+
+    // The stub console every stub server returns
+    private static final ConsoleCommandSender CONSOLE = stub(ConsoleCommandSender.class, (method, args) -> {
+        switch(method.getName()){
+            case "getName": return "CONSOLE";
+            case "hasPermission": return true;
+            case "isOp": return true;
+            default: return null;
+        }
+    });
+
+    // The stub server, created the first time it's needed
+    private static Server server;
+
+    private Stubs(){}
+
+    /**
+     * Gets the stub server, installing it into bukkit the first time
+     * 
+     * @return the stub server
+     */
+    public static synchronized Server server(){
+        if(server==null){
+            server = stub(Server.class, (method, args) -> {
+                switch(method.getName()){
+                    case "getName": return "StubServer";
+                    case "getVersion": 
+                    case "getBukkitVersion": return "benchmark";
+                    case "getLogger": return Logger.getLogger("StubServer");
+                    case "getOnlinePlayers": return Collections.emptyList();
+                    case "getConsoleSender": return CONSOLE;
+                    case "dispatchCommand": return true;
+                    case "isPrimaryThread": return true;
+                    default: return null;
+                }
+            });
+            Bukkit.setServer(server);
+        }
+        return server;
+    }
+
+    /**
+     * Gets the stub console
+     * 
+     * @return the console
+     */
+    public static CommandSender console(){
+        return CONSOLE;
+    }
+
+    /**
+     * Creates a stub player with exactly the given permissions
+     * 
+     * @param name The name of the player
+     * @param permissions The permissions the player has
+     * @return the player
+     */
+    public static Player player(String name, Set<String> permissions){
+        Server server = server();
+        UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        return stub(Player.class, (method, args) -> {
+            switch(method.getName()){
+                case "getName":
+                case "getDisplayName": return name;
+                case "getUniqueId": return id;
+                case "getServer": return server;
+                case "isOnline": return true;
+                case "getEffectivePermissions": return Collections.emptySet();
+                case "hasPermission": return args[0] instanceof String && permissions.contains(args[0]);
+                default: return null;
+            }
+        });
+    }
+
+    /**
+     * Handles the methods of a stub
+     */
+    private interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+
+    /**
+     * Creates a stub of the given interface
+     * 
+     * @param type The interface to stub
+     * @param handler Handles each method, returning null for the default value
+     * @return the stub
+     */
+    private static <T> T stub(Class<T> type, Handler handler){
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+
+            // Identity methods so stubs work in hash maps
+            switch(method.getName()){
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy==args[0];
+                case "toString": return type.getSimpleName()+"Stub";
+                default: break;
+            }
+
+            // Use the handler then fall back to the default of the return type
+            Object result = handler.handle(method, args);
+            if(result!=null)
+                return result;
+            Class<?> returnType = method.getReturnType();
+            if(returnType==boolean.class)
+                return false;
+            if(returnType==int.class)
+                return 0;
+            if(returnType==long.class)
+                return 0L;
+            if(returnType==double.class)
+                return 0.0;
+            if(returnType==float.class)
+                return 0.0f;
+            if(returnType==short.class)
+                return (short) 0;
+            if(returnType==byte.class)
+                return (byte) 0;
+            if(returnType==char.class)
+                return (char) 0;
+            return null;
+
+        }));
+    }
+
+}
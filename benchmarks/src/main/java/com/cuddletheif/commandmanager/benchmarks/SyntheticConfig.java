@@ -0,0 +1,116 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Generates configs with a given shape and commands that hit them
+ */
+public final class SyntheticConfig {
+
+    // Permissions spread over the commands, players in the benchmarks have half of them
+    public static final int PERMISSIONS = 8;
+
+    private SyntheticConfig(){}
+
+    /**
+     * Generates a config of commands
+     * 
+     * @param commands Number of top commands
+     * @param depth Levels of sub commands under each top command
+     * @param fanout Sub commands of each command above the last level
+     * @param aliases Extra names of every command
+     * @return the config with a filled in commands section
+     */
+    public static YamlConfiguration generate(int commands, int depth, int fanout, int aliases){
+        YamlConfiguration config = new YamlConfiguration();
+        ConfigurationSection cmdSection = config.createSection("commands");
+        for(int i=0;i<commands;i++)
+            fill(cmdSection.createSection("cmd"+i), "cmd"+i, i, depth, fanout, aliases);
+        return config;
+    }
+
+    /**
+     * Fills in one command and its sub commands
+     * 
+     * @param section The section of the command
+     * @param name The basic name of the command
+     * @param seed Number used to pick the command's settings
+     * @param depth Levels of sub commands left
+     * @param fanout Sub commands of each command above the last level
+     * @param aliases Extra names of every command
+     */
+    private static void fill(ConfigurationSection section, String name, int seed, int depth, int fanout, int aliases){
+
+        // Names and a spread of settings
+        StringBuilder names = new StringBuilder(name);
+        for(int a=0;a<aliases;a++)
+            names.append('|').append(name).append("a").append(a);
+        section.set("name", names.toString());
+        if(seed%4==0)
+            section.set("permission", "bench.perm"+(seed%PERMISSIONS));
+        if(seed%3==0)
+            section.set("disabled", true);
+        if(seed%2==0)
+            section.set("hidden", true);
+        if(seed%5==0)
+            section.set("hide-sub", true);
+
+        // Sub commands
+        if(depth>0){
+            ConfigurationSection subSection = section.createSection("subcommands");
+            for(int i=0;i<fanout;i++)
+                fill(subSection.createSection("sub"+i), "sub"+i, seed*31+i, depth-1, fanout, aliases);
+        }
+
+    }
+
+    /**
+     * Generates commands players would type against a generated config, about one in four miss every command
+     * 
+     * @param count Number of commands to generate
+     * @param commands Number of top commands in the config
+     * @param depth Levels of sub commands in the config
+     * @param fanout Sub commands of each command in the config
+     * @param seed Seed for the random picks
+     * @return the commands without the leading slash
+     */
+    public static String[] commandLines(int count, int commands, int depth, int fanout, long seed){
+        Random random = new Random(seed);
+        String[] lines = new String[count];
+        for(int i=0;i<count;i++){
+            StringBuilder line = new StringBuilder();
+            line.append(random.nextInt(4)==0 ? "unknown"+random.nextInt(commands) : "cmd"+random.nextInt(commands));
+            int levels = random.nextInt(depth+2);
+            for(int level=0;level<levels;level++)
+                line.append(' ').append(level<depth ? "sub"+random.nextInt(fanout) : "arg"+level);
+            lines[i] = line.toString();
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the names of every top command and alias, like the server would send to a player
+     * 
+     * @param commands Number of top commands in the config
+     * @param aliases Extra names of every command
+     * @param others Number of other commands on the server
+     * @return the names
+     */
+    public static List<String> commandNames(int commands, int aliases, int others){
+        List<String> names = new ArrayList<>();
+        for(int i=0;i<commands;i++){
+            names.add("cmd"+i);
+            for(int a=0;a<aliases;a++)
+                names.add("cmd"+i+"a"+a);
+        }
+        for(int i=0;i<others;i++)
+            names.add("other"+i);
+        return names;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.cuddletheif.commandmanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.server.TabCompleteEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of editing the completions of a tab buffer in the tab complete listener
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TabCompleteBenchmark {
+
+    /**
+     * The completions the server would offer before the listener edits them
+     */
+    @State(Scope.Thread)
+    public static class Completions {
+
+        public List<String> original;
+        public int next;
+
+        @Setup
+        public void setup(ListenerState state){
+            this.original = new ArrayList<>();
+            for(int i=0;i<state.fanout;i++)
+                this.original.add("sub"+i);
+            this.original.add("other");
+        }
+
+    }
+
+    @Benchmark
+    public List<String> tabComplete(ListenerState state, Completions completions){
+        TabCompleteEvent event = new TabCompleteEvent(state.player, state.buffers[completions.next++ & (ListenerState.INPUTS-1)], new ArrayList<>(completions.original));
+        state.listener.onTabComplete(event);
+        return event.getCompletions();
+    }
+
+}
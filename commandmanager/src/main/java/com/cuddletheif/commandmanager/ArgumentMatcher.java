@@ -0,0 +1,156 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Matches a sub command name that stands for any argument of a kind instead of one literal name
+ * 
+ * The names are "*" for any argument, "&lt;player&gt;" for a valid player name, "&lt;int&gt;" for a whole number and "regex:..." for any argument the expression fully matches
+ */
+public class ArgumentMatcher {
+
+    // Prefix of a name holding a regular expression
+    private static final String REGEX = "regex:";
+
+    // The name the matcher was parsed from
+    private final String name;
+
+    // The expression arguments have to match, null for the built in kinds
+    private final Pattern pattern;
+
+    // A matcher of the expression for each thread, reset for each argument so matching doesn't allocate (null for the built in kinds)
+    private final ThreadLocal<Matcher> matcher;
+
+    /**
+     * Creates a matcher from its name
+     * 
+     * @param name The name of the matcher
+     * @param pattern The expression arguments have to match, null for the built in kinds
+     */
+    private ArgumentMatcher(String name, Pattern pattern){
+        this.name = name;
+        this.pattern = pattern;
+        this.matcher = pattern!=null ? ThreadLocal.withInitial(() -> pattern.matcher("")) : null;
+    }
+
+    /**
+     * Parses the matcher of a sub command name
+     * 
+     * @param name The name of the sub command
+     * @return The matcher, null if the name is a literal name
+     * @throws InvalidConfigurationException If the name holds an invalid regular expression
+     */
+    public static ArgumentMatcher parse(String name) throws InvalidConfigurationException{
+        if(name.equals("*") || name.equalsIgnoreCase("<player>") || name.equalsIgnoreCase("<int>"))
+            return new ArgumentMatcher(name.toLowerCase(Locale.ROOT), null);
+        if(!isRegex(name))
+            return null;
+        try{
+            return new ArgumentMatcher(name, Pattern.compile(name.substring(REGEX.length()), Pattern.CASE_INSENSITIVE));
+        } catch(PatternSyntaxException e){
+            throw new InvalidConfigurationException("Invalid regular expression in '"+name+"': "+e.getDescription());
+        }
+    }
+
+    /**
+     * Checks if a name holds a regular expression, which isn't split into aliases
+     * 
+     * @param name The name of the command
+     * @return If the name starts with "regex:"
+     */
+    public static boolean isRegex(String name){
+        return name.regionMatches(true, 0, REGEX, 0, REGEX.length());
+    }
+
+    /**
+     * Checks if a name is a matcher instead of a literal name
+     * 
+     * @param name The name of the command
+     * @return If {@link #parse(String)} returns a matcher for the name
+     */
+    public static boolean isMatcher(String name){
+        return name.equals("*") || name.equalsIgnoreCase("<player>") || name.equalsIgnoreCase("<int>") || isRegex(name);
+    }
+
+    /**
+     * Gets the name the matcher was parsed from
+     * 
+     * @return the name
+     */
+    public String getName(){
+        return this.name;
+    }
+
+    /**
+     * Checks if an argument matches
+     * 
+     * @param text The text holding the argument
+     * @param start The index of the first character of the argument
+     * @param end The index after the last character of the argument
+     * @return If the argument matches
+     */
+    public boolean matches(CharSequence text, int start, int end){
+        if(this.pattern!=null){
+            Matcher matcher = this.matcher.get().reset(text);
+            boolean matches = matcher.region(start, end).matches();
+            matcher.reset("");
+            return matches;
+        }
+        switch(this.name){
+            case "<player>":
+                return isPlayerName(text, start, end);
+            case "<int>":
+                return isInt(text, start, end);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Checks if an argument could be a player's name (3 to 16 letters, digits or underscores)
+     * 
+     * @param text The text holding the argument
+     * @param start The index of the first character of the argument
+     * @param end The index after the last character of the argument
+     * @return If it is a valid name
+     */
+    private static boolean isPlayerName(CharSequence text, int start, int end){
+        if(end-start<3 || end-start>16)
+            return false;
+        for(int i=start;i<end;i++){
+            char c = text.charAt(i);
+            if(!(c>='a' && c<='z' || c>='A' && c<='Z' || c>='0' && c<='9' || c=='_'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if an argument is a whole number that fits in an int
+     * 
+     * @param text The text holding the argument
+     * @param start The index of the first character of the argument
+     * @param end The index after the last character of the argument
+     * @return If it is a whole number
+     */
+    private static boolean isInt(CharSequence text, int start, int end){
+        boolean negative = end>start && text.charAt(start)=='-';
+        int digits = end>start && (negative || text.charAt(start)=='+') ? start+1 : start;
+        if(end==digits || end-digits>10)
+            return false;
+        long value = 0;
+        for(int i=digits;i<end;i++){
+            char c = text.charAt(i);
+            if(c<'0' || c>'9')
+                return false;
+            value = value*10+(c-'0');
+        }
+        return value<=(negative ? 1L<<31 : Integer.MAX_VALUE);
+    }
+
+}
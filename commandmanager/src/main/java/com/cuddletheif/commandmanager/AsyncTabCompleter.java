@@ -0,0 +1,104 @@
+package com.cuddletheif.commandmanager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Completes tab buffers off the main thread on servers with an async tab complete event (Paper and its forks)
+ * 
+ * Only buffers whose completions are fully decided by the commands are handled, the rest go on to the normal tab complete listener
+ */
+public class AsyncTabCompleter implements Listener {
+
+    // The name of the async tab complete event
+    private static final String EVENT_CLASS = "com.destroystokyo.paper.event.server.AsyncTabCompleteEvent";
+
+    // The listener doing the completions
+    private final CommandListener commandListener;
+
+    // The accessors of the event
+    private final Class<? extends Event> eventClass;
+    private final MethodHandle getSender;
+    private final MethodHandle getBuffer;
+    private final MethodHandle isCommand;
+    private final MethodHandle isHandled;
+    private final MethodHandle setCompletions;
+    private final MethodHandle setHandled;
+
+    /**
+     * Looks up the accessors of the event
+     * 
+     * @param commandListener The listener doing the completions
+     * @param eventClass The async tab complete event
+     * @throws ReflectiveOperationException If the event doesn't have the expected methods
+     */
+    private AsyncTabCompleter(CommandListener commandListener, Class<? extends Event> eventClass) throws ReflectiveOperationException{
+        this.commandListener = commandListener;
+        this.eventClass = eventClass;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.getSender = lookup.findVirtual(eventClass, "getSender", MethodType.methodType(CommandSender.class)).asType(MethodType.methodType(CommandSender.class, Event.class));
+        this.getBuffer = lookup.findVirtual(eventClass, "getBuffer", MethodType.methodType(String.class)).asType(MethodType.methodType(String.class, Event.class));
+        this.isCommand = lookup.findVirtual(eventClass, "isCommand", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Event.class));
+        this.isHandled = lookup.findVirtual(eventClass, "isHandled", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Event.class));
+        this.setCompletions = lookup.findVirtual(eventClass, "setCompletions", MethodType.methodType(void.class, List.class)).asType(MethodType.methodType(void.class, Event.class, List.class));
+        this.setHandled = lookup.findVirtual(eventClass, "setHandled", MethodType.methodType(void.class, boolean.class)).asType(MethodType.methodType(void.class, Event.class, boolean.class));
+    }
+
+    /**
+     * Listens for the async tab complete event if the server has it
+     * 
+     * @param plugin The plugin to register the listener for
+     * @param commandListener The listener doing the completions
+     * @return If the event exists and is listened to, if not only the normal tab complete listener is used
+     */
+    public static boolean register(Plugin plugin, CommandListener commandListener){
+
+        // Find the event and its accessors
+        AsyncTabCompleter completer;
+        try{
+            completer = new AsyncTabCompleter(commandListener, Class.forName(EVENT_CLASS).asSubclass(Event.class));
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return false;
+        }
+
+        // Listen for it
+        plugin.getServer().getPluginManager().registerEvent(completer.eventClass, completer, EventPriority.HIGHEST, (listener, event) -> completer.onAsyncTabComplete(event), plugin, true);
+        return true;
+
+    }
+
+    /**
+     * Sets the completions of the buffer if the commands decide all of them
+     * 
+     * @param event The async tab complete event
+     * @throws EventException If the event couldn't be read or changed
+     */
+    private void onAsyncTabComplete(Event event) throws EventException{
+
+        // Other events of a subclass or ones already handled are left alone
+        if(!this.eventClass.isInstance(event))
+            return;
+        try{
+            if((boolean) this.isHandled.invokeExact(event) || !(boolean) this.isCommand.invokeExact(event))
+                return;
+            List<String> completions = this.commandListener.completeAsync((CommandSender) this.getSender.invokeExact(event), (String) this.getBuffer.invokeExact(event));
+            if(completions!=null){
+                this.setCompletions.invokeExact(event, completions);
+                this.setHandled.invokeExact(event, true);
+            }
+        } catch (Throwable e) {
+            throw new EventException(e);
+        }
+
+    }
+
+}
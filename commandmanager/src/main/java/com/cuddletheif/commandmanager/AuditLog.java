@@ -0,0 +1,510 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps a log of what was done with each command (which command matched, if it was blocked and the new commands it ran)
+ * 
+ * Listeners only put the records in a buffer, a background thread writes them to the file in batches and rolls the file over by size and time
+ */
+public class AuditLog {
+
+    /**
+     * What happened to a command
+     */
+    public enum Outcome {
+        ALLOWED("allowed"),
+        BLOCKED("blocked"),
+        LIMITED("rate limited");
+
+        // The name written in the log
+        private final String title;
+
+        Outcome(String title){
+            this.title = title;
+        }
+    }
+
+    // Time the writer sleeps when there's nothing to write
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // Bytes collected before they're written to the file
+    private static final int BUFFER_SIZE = 64*1024;
+
+    // Format of the time of each record and of the names of rolled files
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+    private static final DateTimeFormatter ROLLED = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss", Locale.ROOT);
+
+    // The file written
+    private final Path file;
+
+    private final Logger logger;
+
+    // The running writer, null if the log is off
+    private volatile Writer writer;
+
+    // The settings of the running writer, null if the log is off
+    private String settings;
+
+    /**
+     * Creates an audit log that's off until configured
+     * 
+     * @param file The file to write the records to, rolled files are put in the same folder
+     * @param logger The logger to warn of errors writing the file
+     */
+    public AuditLog(Path file, Logger logger){
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Turns the log on or off, restarting the writer if its settings changed (Must be called on the main thread)
+     * 
+     * @param section The audit-log section of the config (May be null to turn the log off)
+     */
+    public void configure(ConfigurationSection section){
+
+        // Keep the current writer if the settings are the same
+        boolean enabled = section!=null && section.getBoolean("enabled", false);
+        long maxSize = enabled ? Math.max(0, section.getLong("max-size", 10))*1024*1024 : 0;
+        long interval = enabled ? TimeUnit.MINUTES.toMillis(Math.max(0, section.getLong("rotate-interval", 1440))) : 0;
+        boolean gzip = enabled && section.getBoolean("gzip", true);
+        int capacity = enabled ? Math.max(2, section.getInt("buffer", 8192)) : 0;
+        String settings = enabled ? maxSize+"|"+interval+"|"+gzip+"|"+capacity : null;
+        if(settings==null ? this.settings==null : settings.equals(this.settings))
+            return;
+
+        // Stop the old writer once it's written everything it has, then start the new one
+        this.close();
+        this.settings = settings;
+        if(enabled){
+            Writer writer = new Writer(capacity, maxSize, interval, gzip);
+            this.writer = writer;
+            writer.thread.start();
+        }
+
+    }
+
+    /**
+     * Stops the log, waiting a moment for the records not yet written
+     */
+    public void close(){
+        Writer writer = this.writer;
+        this.writer = null;
+        this.settings = null;
+        if(writer==null)
+            return;
+        writer.running = false;
+        LockSupport.unpark(writer.thread);
+        try{
+            writer.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks if commands are being logged, to skip collecting what a command did when they aren't
+     * 
+     * @return If the log is on
+     */
+    public boolean isEnabled(){
+        return this.writer!=null;
+    }
+
+    /**
+     * Logs what was done with a command without waiting for it to be written (Records are dropped and counted if the writer can't keep up)
+     * 
+     * @param sender The sender of the command
+     * @param message The command as it was sent
+     * @param cmd The command matched, null if none
+     * @param outcome What happened to the command
+     * @param dispatched The new commands that were run or queued, null if none
+     */
+    public void record(CommandSender sender, String message, CommandData cmd, Outcome outcome, List<String> dispatched){
+        Writer writer = this.writer;
+        if(writer==null)
+            return;
+        Record record = new Record(System.currentTimeMillis(), sender.getName(), sender instanceof Player, message,
+            cmd!=null ? cmd.getPath() : null, outcome, dispatched!=null && !dispatched.isEmpty() ? dispatched.toArray(new String[0]) : null);
+        if(!writer.ring.offer(record))
+            writer.dropped.incrementAndGet();
+    }
+
+    /**
+     * Writes the records of a buffer to the file on its own thread
+     */
+    private class Writer implements Runnable {
+
+        private final RecordRing ring;
+        private final long maxSize;
+        private final long interval;
+        private final boolean gzip;
+        private final Thread thread;
+
+        // Records that didn't fit in the buffer, and how many of them have been written in the log
+        private final AtomicLong dropped = new AtomicLong();
+        private long droppedLogged;
+
+        // Set to false to write what's left and stop
+        private volatile boolean running = true;
+
+        // The open file, its size and when it was started, null if it isn't open
+        private FileChannel channel;
+        private long size;
+        private long opened;
+
+        // The bytes collected for the next write and the line being formatted
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+
+        // The second last formatted and its text, since records come in bursts within the same second
+        private long second = -1;
+        private String secondText;
+
+        // If the last write failed so the same error isn't logged for every batch
+        private boolean failing;
+
+        private Writer(int capacity, long maxSize, long interval, boolean gzip){
+            this.ring = new RecordRing(capacity);
+            this.maxSize = maxSize;
+            this.interval = interval;
+            this.gzip = gzip;
+            this.thread = new Thread(this, "CommandManager audit log");
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+
+            // Write everything in the buffer as one batch, sleeping when it's empty until stopped
+            while(true){
+                boolean running = this.running;
+                int count = 0;
+                try{
+                    Record record;
+                    while((record = this.ring.poll())!=null){
+                        this.append(record);
+                        count++;
+                    }
+                    long dropped = this.dropped.get();
+                    if(dropped!=this.droppedLogged){
+                        this.line.setLength(0);
+                        this.appendTime(System.currentTimeMillis());
+                        this.line.append(dropped-this.droppedLogged).append(" records dropped, the audit log couldn't keep up");
+                        this.appendLine(this.line);
+                        this.droppedLogged = dropped;
+                        count++;
+                    }
+                    if(count>0)
+                        this.flush();
+                    if(this.channel!=null && ((this.maxSize>0 && this.size>=this.maxSize) || (this.interval>0 && this.size>0 && System.currentTimeMillis()-this.opened>=this.interval)))
+                        this.roll();
+                    this.failing = false;
+                } catch (IOException e) {
+                    if(!this.failing)
+                        logger.log(Level.WARNING, "Could not write the audit log to "+file+", records are dropped until it can be written", e);
+                    this.failing = true;
+                    this.buffer.clear();
+                    this.closeChannel();
+                }
+                if(!running)
+                    break;
+                if(count==0)
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            this.closeChannel();
+
+        }
+
+        /**
+         * Formats a record as one line of the log
+         * 
+         * @param record The record to add
+         * @throws IOException If the buffer was full and couldn't be written
+         */
+        private void append(Record record) throws IOException{
+            StringBuilder line = this.line;
+            line.setLength(0);
+            this.appendTime(record.time);
+            line.append(record.player ? "" : "(console) ").append(record.sender).append(": ");
+            appendClean(line, record.message);
+            line.append(" (").append(record.outcome.title);
+            if(record.path!=null){
+                line.append(", matched /");
+                appendClean(line, record.path);
+            }
+            if(record.dispatched!=null){
+                line.append(", ran");
+                for(int i=0;i<record.dispatched.length;i++){
+                    line.append(i>0 ? ", /" : " /");
+                    appendClean(line, record.dispatched[i]);
+                }
+            }
+            line.append(')');
+            this.appendLine(line);
+        }
+
+        /**
+         * Adds the time of a record to the line being formatted
+         * 
+         * @param time The time in milliseconds
+         */
+        private void appendTime(long time){
+            long second = Math.floorDiv(time, 1000);
+            if(second!=this.second){
+                this.second = second;
+                this.secondText = TIME.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()));
+            }
+            int millis = Math.floorMod(time, 1000);
+            this.line.append('[').append(this.secondText).append('.');
+            if(millis<100)
+                this.line.append('0');
+            if(millis<10)
+                this.line.append('0');
+            this.line.append(millis).append("] ");
+        }
+
+        /**
+         * Adds a line to the bytes to write, writing the buffer first if it's full
+         * 
+         * @param line The line without its line break
+         * @throws IOException If the buffer couldn't be written
+         */
+        private void appendLine(CharSequence line) throws IOException{
+            byte[] bytes = (line+"\n").getBytes(StandardCharsets.UTF_8);
+            if(bytes.length>this.buffer.remaining())
+                this.flush();
+            if(bytes.length>this.buffer.remaining())
+                this.write(ByteBuffer.wrap(bytes));
+            else
+                this.buffer.put(bytes);
+        }
+
+        /**
+         * Writes the bytes collected to the file
+         * 
+         * @throws IOException If they couldn't be written
+         */
+        private void flush() throws IOException{
+            this.buffer.flip();
+            try{
+                this.write(this.buffer);
+            } finally {
+                this.buffer.clear();
+            }
+        }
+
+        /**
+         * Writes bytes to the end of the file, opening it if needed
+         * 
+         * @param bytes The bytes to write
+         * @throws IOException If they couldn't be written
+         */
+        private void write(ByteBuffer bytes) throws IOException{
+            if(!bytes.hasRemaining())
+                return;
+            if(this.channel==null)
+                this.open();
+            while(bytes.hasRemaining())
+                this.size += this.channel.write(bytes);
+        }
+
+        /**
+         * Opens the file to add to it, starting its time from when it was created
+         * 
+         * @throws IOException If it couldn't be opened
+         */
+        private void open() throws IOException{
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.size = this.channel.size();
+            this.opened = System.currentTimeMillis();
+            if(this.size>0){
+                try{
+                    this.opened = Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis();
+                } catch (IOException e) {
+                    // Start its time now
+                }
+            }
+        }
+
+        /**
+         * Moves the file aside with the time it was rolled in its name, compressing it if set, so the next records start a new file
+         * 
+         * @throws IOException If the file couldn't be moved
+         */
+        private void roll() throws IOException{
+
+            this.closeChannel();
+
+            // Find a name not used yet
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String base = (dot>0 ? name.substring(0, dot) : name)+"-"+ROLLED.format(LocalDateTime.now());
+            String extension = dot>0 ? name.substring(dot) : "";
+            Path rolled = file.resolveSibling(base+extension);
+            for(int i=1;Files.exists(rolled) || Files.exists(rolled.resolveSibling(rolled.getFileName()+".gz"));i++)
+                rolled = file.resolveSibling(base+"-"+i+extension);
+            try{
+                Files.move(file, rolled);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+
+            // Compress it, keeping the uncompressed file if that fails
+            if(!this.gzip)
+                return;
+            Path compressed = rolled.resolveSibling(rolled.getFileName()+".gz");
+            try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed), BUFFER_SIZE)){
+                Files.copy(rolled, out);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not compress the audit log "+rolled, e);
+                Files.deleteIfExists(compressed);
+                return;
+            }
+            Files.delete(rolled);
+
+        }
+
+        /**
+         * Closes the file if it's open
+         */
+        private void closeChannel(){
+            if(this.channel==null)
+                return;
+            try{
+                this.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close the audit log "+file, e);
+            }
+            this.channel = null;
+        }
+
+    }
+
+    /**
+     * Adds text to a line replacing any line breaks or other control characters so a command can't fake records
+     * 
+     * @param line The line to add to
+     * @param text The text to add
+     */
+    private static void appendClean(StringBuilder line, String text){
+        for(int i=0;i<text.length();i++){
+            char c = text.charAt(i);
+            line.append(Character.isISOControl(c) ? '?' : c);
+        }
+    }
+
+    /**
+     * What was done with one command
+     */
+    private static class Record {
+
+        private final long time;
+        private final String sender;
+        private final boolean player;
+        private final String message;
+        private final String path;
+        private final Outcome outcome;
+        private final String[] dispatched;
+
+        private Record(long time, String sender, boolean player, String message, String path, Outcome outcome, String[] dispatched){
+            this.time = time;
+            this.sender = sender;
+            this.player = player;
+            this.message = message;
+            this.path = path;
+            this.outcome = outcome;
+            this.dispatched = dispatched;
+        }
+
+    }
+
+    /**
+     * A fixed size buffer of records that any number of threads can add to without locking and one thread takes from
+     */
+    private static class RecordRing {
+
+        // The records by their sequence number modulo the size, null once taken
+        private final AtomicReferenceArray<Record> slots;
+        private final int mask;
+
+        // The sequence number of the next record added and of the next record taken
+        private final AtomicLong head = new AtomicLong();
+        private volatile long tail;
+
+        /**
+         * Creates an empty buffer
+         * 
+         * @param capacity The most records held, rounded up to a power of two
+         */
+        private RecordRing(int capacity){
+            int size = Integer.highestOneBit(Math.max(2, capacity)-1)<<1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size-1;
+        }
+
+        /**
+         * Adds a record if there's room
+         * 
+         * @param record The record to add
+         * @return If it was added
+         */
+        private boolean offer(Record record){
+            while(true){
+                long head = this.head.get();
+                if(head-this.tail>this.mask)
+                    return false;
+                if(this.head.compareAndSet(head, head+1)){
+                    this.slots.lazySet((int) head&this.mask, record);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Takes the oldest record (Only called by the writer)
+         * 
+         * @return The record, null if there are none or the next one is still being added
+         */
+        private Record poll(){
+            long tail = this.tail;
+            int slot = (int) tail&this.mask;
+            Record record = this.slots.get(slot);
+            if(record==null)
+                return null;
+            this.slots.lazySet(slot, null);
+            this.tail = tail+1;
+            return record;
+        }
+
+    }
+
+}
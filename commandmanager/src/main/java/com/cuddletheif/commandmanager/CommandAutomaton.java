@@ -0,0 +1,436 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * The whole command tree compiled into a deterministic automaton over the tokens of a command
+ * 
+ * Each state is every command matched by the tokens so far in config order, so a command is matched by one step per token no matter how many sub commands or argument matchers there are.
+ * Steps on a literal name are compiled when the tree is loaded, steps on other arguments by which argument matchers they match are compiled the first time they are taken.
+ */
+public class CommandAutomaton {
+
+    // Most distinct argument matchers at one depth of the tree, each takes a bit of a mask
+    private static final int MAX_MATCHERS = 64;
+
+    // Shared by every state no command blocks the default version of
+    private static final int[] NO_PERMISSIONS = new int[0];
+
+    // The distinct argument matchers at each depth by their bit
+    private final ArgumentMatcher[][] matchers;
+
+    // Every state compiled so far by its commands, so equal states are shared
+    private final Map<List<CommandData>, State> states = new HashMap<>();
+
+    // The state before any token
+    private final State root;
+
+    /**
+     * Compiles the automaton of the given top commands
+     * 
+     * @param commands The top commands in config order
+     * @param previous The automaton of the previous commands to keep the bits of, null to start over
+     * @param reused The top commands taken from the previous commands, which already have their bits
+     * @throws InvalidConfigurationException If one depth of the tree has too many distinct argument matchers
+     */
+    public CommandAutomaton(CommandData[] commands, CommandAutomaton previous, Set<CommandData> reused) throws InvalidConfigurationException{
+
+        // Keep the bits of the previous matchers so the reused commands stay the same
+        List<Map<String, Integer>> bits = new ArrayList<>();
+        List<List<ArgumentMatcher>> matchers = new ArrayList<>();
+        if(previous!=null)
+            for(ArgumentMatcher[] depthMatchers : previous.matchers){
+                Map<String, Integer> depthBits = new HashMap<>();
+                for(int bit=0;bit<depthMatchers.length;bit++)
+                    depthBits.put(depthMatchers[bit].getName(), bit);
+                bits.add(depthBits);
+                matchers.add(new ArrayList<>(Arrays.asList(depthMatchers)));
+            }
+
+        // Give each new distinct argument matcher at each depth its bit
+        for(CommandData cmd : commands)
+            if(!reused.contains(cmd))
+                assignBits(cmd, 0, bits, matchers);
+        this.matchers = new ArgumentMatcher[matchers.size()][];
+        for(int depth=0;depth<this.matchers.length;depth++)
+            this.matchers[depth] = matchers.get(depth).toArray(new ArgumentMatcher[0]);
+
+        // Compile every state reachable by literal names
+        this.root = new State(this, -1, CommandTree.NO_COMMANDS, commands);
+
+    }
+
+    /**
+     * Gives the argument matchers of a command and every sub command their bits
+     * 
+     * @param cmd The command to give bits to
+     * @param depth The index of the command's token
+     * @param bits The bit of each matcher name at each depth so far
+     * @param matchers The matchers at each depth by their bit so far
+     * @throws InvalidConfigurationException If the depth has too many distinct argument matchers
+     */
+    private static void assignBits(CommandData cmd, int depth, List<Map<String, Integer>> bits, List<List<ArgumentMatcher>> matchers) throws InvalidConfigurationException{
+
+        // Add the depth if it's the first command at it
+        if(bits.size()==depth){
+            bits.add(new HashMap<>());
+            matchers.add(new ArrayList<>());
+        }
+
+        // Combine the bits of every matcher of the command
+        long mask = 0;
+        for(ArgumentMatcher matcher : cmd.getMatchers()){
+            Integer bit = bits.get(depth).get(matcher.getName());
+            if(bit==null){
+                bit = matchers.get(depth).size();
+                if(bit==MAX_MATCHERS)
+                    throw new TooManyMatchersException("More than "+MAX_MATCHERS+" different argument matchers at depth "+depth+" of the commands");
+                bits.get(depth).put(matcher.getName(), bit);
+                matchers.get(depth).add(matcher);
+            }
+            mask |= 1L<<bit;
+        }
+        cmd.setMatcherBits(mask);
+
+        for(CommandData subCmd : cmd.getSubCommands())
+            assignBits(subCmd, depth+1, bits, matchers);
+
+    }
+
+    /**
+     * Gets the state before any token
+     * 
+     * @return the root state
+     */
+    public State getRoot(){
+        return this.root;
+    }
+
+    /**
+     * Gets the state matching the given commands, compiling it if it's new
+     * 
+     * @param depth The index of the token the commands matched
+     * @param commands The commands matched in config order
+     * @return the state
+     */
+    private synchronized State getState(int depth, List<CommandData> commands){
+        State state = this.states.get(commands);
+        if(state==null){
+            CommandData[] cmds = commands.toArray(CommandTree.NO_COMMANDS);
+            List<CommandData> children = new ArrayList<>();
+            for(CommandData cmd : cmds)
+                for(CommandData subCmd : cmd.getSubCommands())
+                    children.add(subCmd);
+            state = new State(this, depth, cmds, children.toArray(CommandTree.NO_COMMANDS));
+            this.states.put(Arrays.asList(cmds), state);
+        }
+        return state;
+    }
+
+    /**
+     * Every command matched by the tokens of a command so far
+     */
+    public static class State {
+
+        // The automaton the state is part of
+        private final CommandAutomaton automaton;
+
+        // The index of the token the commands matched (-1 for the root)
+        private final int depth;
+
+        // The commands matched in config order
+        private final CommandData[] commands;
+
+        // The next state for each literal name of a sub command
+        private final NameTable<State> literals;
+
+        // The sub commands with argument matchers in config order
+        private final CommandData[] matched;
+
+        // The bits of every argument matcher of the sub commands
+        private final long matcherBits;
+
+        // The next state for each mask of argument matchers an argument matched, compiled when first taken
+        private volatile MaskSteps maskSteps = MaskSteps.NONE;
+
+        // The permissions of the commands disabling the default version of their sub commands (-1 for everyone)
+        private final int[] subBlocks;
+
+        // The permissions of the commands disabling their default version (-1 for everyone)
+        private final int[] blocks;
+
+        // The commands with when expressions disabling the default version of their sub commands or their own default version
+        private final CommandData[] conditionalSubBlocks;
+        private final CommandData[] conditionalBlocks;
+
+        /**
+         * Compiles a state and every state after it reachable by literal names
+         * 
+         * @param automaton The automaton the state is part of
+         * @param depth The index of the token the commands matched
+         * @param commands The commands matched in config order
+         * @param children The sub commands of the commands in config order
+         */
+        private State(CommandAutomaton automaton, int depth, CommandData[] commands, CommandData[] children){
+            this.automaton = automaton;
+            this.depth = depth;
+            this.commands = commands;
+            this.subBlocks = blocks(commands, false);
+            this.blocks = blocks(commands, true);
+            this.conditionalSubBlocks = conditionalBlocks(commands, false);
+            this.conditionalBlocks = conditionalBlocks(commands, true);
+
+            // Split the sub commands with argument matchers from the literal names
+            List<CommandData> matched = new ArrayList<>();
+            Map<String, List<CommandData>> literals = new LinkedHashMap<>();
+            long matcherBits = 0;
+            for(CommandData child : children){
+                if(child.getMatcherBits()!=0){
+                    matched.add(child);
+                    matcherBits |= child.getMatcherBits();
+                }
+                for(String name : child.getNames())
+                    if(!ArgumentMatcher.isMatcher(name))
+                        literals.putIfAbsent(name.toLowerCase(Locale.ROOT), new ArrayList<>());
+            }
+            this.matched = matched.toArray(CommandTree.NO_COMMANDS);
+            this.matcherBits = matcherBits;
+
+            // Group the sub commands by each literal name in config order, only the ones with argument matchers have to be checked against every name
+            for(CommandData child : children){
+                if(child.getMatcherBits()!=0){
+                    for(Map.Entry<String, List<CommandData>> entry : literals.entrySet())
+                        if(child.matches(entry.getKey()))
+                            entry.getValue().add(child);
+                }
+                else
+                    for(String name : child.getNames()){
+                        List<CommandData> group = literals.get(name.toLowerCase(Locale.ROOT));
+                        if(group.isEmpty() || group.get(group.size()-1)!=child)
+                            group.add(child);
+                    }
+            }
+
+            // Compile the next state of each literal name
+            Map<String, State> steps = new HashMap<>(literals.size()*2);
+            for(Map.Entry<String, List<CommandData>> entry : literals.entrySet())
+                steps.put(entry.getKey(), automaton.getState(depth+1, entry.getValue()));
+            this.literals = steps.isEmpty() ? NameTable.empty() : new NameTable<>(steps);
+
+        }
+
+        /**
+         * Gets the permissions of the given commands without when expressions that disable the default version
+         * 
+         * @param commands The commands to check
+         * @param terminal If it's the default version of the commands or their sub commands
+         * @return The distinct permissions (-1 for everyone)
+         */
+        private static int[] blocks(CommandData[] commands, boolean terminal){
+            int[] permissions = Arrays.stream(commands).filter(cmd -> cmd.disablesDefault(terminal) && !cmd.isConditional()).mapToInt(CommandData::getPermissionIndex).distinct().toArray();
+            return permissions.length>0 ? permissions : NO_PERMISSIONS;
+        }
+
+        /**
+         * Gets the given commands with when expressions that disable the default version
+         * 
+         * @param commands The commands to check
+         * @param terminal If it's the default version of the commands or their sub commands
+         * @return The commands in config order
+         */
+        private static CommandData[] conditionalBlocks(CommandData[] commands, boolean terminal){
+            CommandData[] conditional = Arrays.stream(commands).filter(cmd -> cmd.disablesDefault(terminal) && cmd.isConditional()).toArray(CommandData[]::new);
+            return conditional.length>0 ? conditional : CommandTree.NO_COMMANDS;
+        }
+
+        /**
+         * Takes the step for the next token
+         * 
+         * @param tokens The tokens of the command
+         * @param token The index of the next token
+         * @return The state after the token, null if no command matches it
+         */
+        public State next(CommandTokens tokens, int token){
+
+            // Literal names were compiled with the tree
+            CharSequence text = tokens.getText();
+            int start = tokens.start(token);
+            int end = tokens.end(token);
+            State next = this.literals.get(text, start, end);
+            if(next!=null || this.matcherBits==0)
+                return next;
+
+            // Otherwise find every argument matcher the token matches
+            ArgumentMatcher[] matchers = this.automaton.matchers[this.depth+1];
+            long mask = 0;
+            for(long bits=this.matcherBits;bits!=0;bits&=bits-1){
+                int bit = Long.numberOfTrailingZeros(bits);
+                if(matchers[bit].matches(text, start, end))
+                    mask |= 1L<<bit;
+            }
+            if(mask==0)
+                return null;
+
+            // Use the state compiled for the mask if it was taken before
+            next = this.maskSteps.get(mask);
+            return next!=null ? next : this.compileMask(mask);
+
+        }
+
+        /**
+         * Compiles the state after an argument matching the given argument matchers
+         * 
+         * @param mask The bits of the matchers the argument matched
+         * @return The state after the argument
+         */
+        private synchronized State compileMask(long mask){
+            State next = this.maskSteps.get(mask);
+            if(next==null){
+                List<CommandData> cmds = new ArrayList<>();
+                for(CommandData cmd : this.matched)
+                    if((cmd.getMatcherBits() & mask)!=0)
+                        cmds.add(cmd);
+                next = this.automaton.getState(this.depth+1, cmds);
+                this.maskSteps = this.maskSteps.with(mask, next);
+            }
+            return next;
+        }
+
+        /**
+         * Gets every command matched by the tokens so far
+         * 
+         * @return the commands in config order
+         */
+        public CommandData[] getCommands(){
+            return this.commands;
+        }
+
+        /**
+         * Checks if a command matched so far disables the default version of the sub commands for the sender
+         * 
+         * @param sender The sender of the command
+         * @param perms The permissions of the sender
+         * @param tokens The tokens of the command for the when expressions
+         * @return If the default version can't be run when there are more tokens
+         */
+        public boolean blocksSubCommands(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+            return blocks(this.subBlocks, perms) || blocks(this.conditionalSubBlocks, sender, perms, tokens);
+        }
+
+        /**
+         * Checks if a command matched disables its default version for the sender
+         * 
+         * @param sender The sender of the command
+         * @param perms The permissions of the sender
+         * @param tokens The tokens of the command for the when expressions
+         * @return If the default version can't be run when these are all the tokens
+         */
+        public boolean blocksCommand(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+            return blocks(this.blocks, perms) || blocks(this.conditionalBlocks, sender, perms, tokens);
+        }
+
+        /**
+         * Checks if the sender has any of the given permissions
+         * 
+         * @param permissions The permissions to check (-1 for everyone)
+         * @param perms The permissions of the sender
+         * @return If the sender has one
+         */
+        private static boolean blocks(int[] permissions, PermissionSnapshot perms){
+            for(int permission : permissions)
+                if(perms.has(permission))
+                    return true;
+            return false;
+        }
+
+        /**
+         * Checks if any of the given commands applies to the sender
+         * 
+         * @param commands The commands with when expressions to check
+         * @param sender The sender of the command
+         * @param perms The permissions of the sender
+         * @param tokens The tokens of the command
+         * @return If the sender has the permission of one and its when expression holds
+         */
+        private static boolean blocks(CommandData[] commands, CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+            for(CommandData cmd : commands)
+                if(cmd.hasPermission(perms) && cmd.isConditionMet(sender, perms, tokens))
+                    return true;
+            return false;
+        }
+
+    }
+
+    /**
+     * The steps taken by masks of argument matchers from one state, replaced whole when one is added so they can be read without locking
+     */
+    private static class MaskSteps {
+
+        // Steps for a state that hasn't taken any mask yet
+        private static final MaskSteps NONE = new MaskSteps(new long[0], new State[0]);
+
+        // The masks taken
+        private final long[] masks;
+
+        // The state after each mask at the same index
+        private final State[] states;
+
+        private MaskSteps(long[] masks, State[] states){
+            this.masks = masks;
+            this.states = states;
+        }
+
+        /**
+         * Gets the state after a mask
+         * 
+         * @param mask The mask taken
+         * @return The state, null if the mask wasn't taken before
+         */
+        private State get(long mask){
+            for(int i=0;i<this.masks.length;i++)
+                if(this.masks[i]==mask)
+                    return this.states[i];
+            return null;
+        }
+
+        /**
+         * Copies the steps with another one
+         * 
+         * @param mask The mask taken
+         * @param state The state after it
+         * @return The new steps
+         */
+        private MaskSteps with(long mask, State state){
+            long[] masks = Arrays.copyOf(this.masks, this.masks.length+1);
+            State[] states = Arrays.copyOf(this.states, this.states.length+1);
+            masks[this.masks.length] = mask;
+            states[this.states.length] = state;
+            return new MaskSteps(masks, states);
+        }
+
+    }
+
+    /**
+     * Thrown when one depth of the tree has more distinct argument matchers than a mask has bits
+     */
+    static class TooManyMatchersException extends InvalidConfigurationException {
+
+        private static final long serialVersionUID = 1L;
+
+        private TooManyMatchersException(String message){
+            super(message);
+        }
+
+    }
+
+}
@@ -0,0 +1,616 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.GameMode;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.entity.Player;
+
+/**
+ * A when expression deciding if a command applies to the sender, parsed once when the config is loaded
+ * 
+ * Expressions join checks with &amp;&amp; (or and), || (or or), ! (or not) and brackets, where each check is one of
+ * "world == name", "gamemode == mode", "args &lt; count", "permission(node)" and "metadata(key)"
+ * 
+ * The checks of each &amp;&amp; and || are reordered so the cheapest ones run first and the rest are skipped once the result is known.
+ * A world, gamemode or metadata check is false for senders that aren't players (like the console), while the rest of the expression is checked for them as usual
+ * args counts the arguments after the command the expression is checked for, so a sub command counts from its own name
+ */
+public abstract class CommandCondition {
+
+    // The relative cost of each kind of check, for ordering them cheapest first
+    private static final int COST_ARGS = 1;
+    private static final int COST_PERMISSION = 1;
+    private static final int COST_GAMEMODE = 2;
+    private static final int COST_WORLD = 3;
+    private static final int COST_METADATA = 4;
+
+    // The cost of checking this condition and every condition in it
+    private final int cost;
+
+    /**
+     * Creates a condition
+     * 
+     * @param cost The cost of checking it
+     */
+    private CommandCondition(int cost){
+        this.cost = cost;
+    }
+
+    /**
+     * Checks if the condition holds for the sender of a command
+     * 
+     * @param sender The sender of the command
+     * @param perms The permissions of the sender
+     * @param tokens The tokens of the command
+     * @param from The index of the first token after the command being checked, where its arguments start
+     * @return If it holds
+     */
+    public abstract boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from);
+
+    /**
+     * Interns the permissions checked by this condition into the permissions of the tree
+     * 
+     * @param indices The index of each permission interned so far, new permissions are added to it
+     */
+    void internPermissions(Map<String, Integer> indices){
+    }
+
+    /**
+     * Adds the permissions checked by this condition to the given set
+     * 
+     * @param permissions The set to add to
+     */
+    void collectPermissions(Set<String> permissions){
+    }
+
+    /**
+     * Parses and compiles a when expression
+     * 
+     * @param expression The text of the expression
+     * @return The compiled condition
+     * @throws InvalidConfigurationException If the expression isn't valid
+     */
+    public static CommandCondition parse(String expression) throws InvalidConfigurationException{
+        Parser parser = new Parser(expression);
+        CommandCondition condition = parser.parseAny();
+        if(parser.peek()!=null)
+            throw parser.error("Unexpected '"+parser.peek()+"'");
+        return condition;
+    }
+
+    /**
+     * Reads the tokens of an expression from left to right
+     */
+    private static class Parser {
+
+        private final String expression;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private int next;
+
+        /**
+         * Splits an expression into its tokens
+         * 
+         * @param expression The text of the expression
+         * @throws InvalidConfigurationException If it has a character that can't start a token
+         */
+        private Parser(String expression) throws InvalidConfigurationException{
+            this.expression = expression;
+            int i = 0;
+            while(i<expression.length()){
+                char c = expression.charAt(i);
+                int start = i;
+                if(Character.isWhitespace(c)){
+                    i++;
+                    continue;
+                }
+                if(expression.startsWith("&&", i) || expression.startsWith("||", i) || expression.startsWith("==", i)
+                    || expression.startsWith("!=", i) || expression.startsWith("<=", i) || expression.startsWith(">=", i))
+                    i += 2;
+                else if("!()<>".indexOf(c)>=0)
+                    i++;
+                else if(isValue(c) && c!='|'){
+                    while(i<expression.length() && isValue(expression.charAt(i)) && !expression.startsWith("||", i))
+                        i++;
+                }
+                else
+                    throw new InvalidConfigurationException("Invalid when expression '"+expression+"': Unexpected '"+c+"' at "+(i+1));
+                this.tokens.add(expression.substring(start, i));
+                this.positions.add(start);
+            }
+        }
+
+        /**
+         * Checks if a character is part of a name or number
+         * 
+         * @param c The character
+         * @return If it is
+         */
+        private static boolean isValue(char c){
+            return Character.isLetterOrDigit(c) || "_-.:*|".indexOf(c)>=0;
+        }
+
+        /**
+         * Parses checks joined by ||
+         * 
+         * @return The condition
+         * @throws InvalidConfigurationException If the expression isn't valid
+         */
+        private CommandCondition parseAny() throws InvalidConfigurationException{
+            List<CommandCondition> conditions = new ArrayList<>();
+            conditions.add(this.parseAll());
+            while(this.accept("||") || this.accept("or"))
+                conditions.add(this.parseAll());
+            return conditions.size()==1 ? conditions.get(0) : new Any(conditions);
+        }
+
+        /**
+         * Parses checks joined by &amp;&amp;
+         * 
+         * @return The condition
+         * @throws InvalidConfigurationException If the expression isn't valid
+         */
+        private CommandCondition parseAll() throws InvalidConfigurationException{
+            List<CommandCondition> conditions = new ArrayList<>();
+            conditions.add(this.parseNot());
+            while(this.accept("&&") || this.accept("and"))
+                conditions.add(this.parseNot());
+            return conditions.size()==1 ? conditions.get(0) : new All(conditions);
+        }
+
+        /**
+         * Parses a check that may be negated or bracketed
+         * 
+         * @return The condition
+         * @throws InvalidConfigurationException If the expression isn't valid
+         */
+        private CommandCondition parseNot() throws InvalidConfigurationException{
+            if(this.accept("!") || this.accept("not"))
+                return new Not(this.parseNot());
+            if(this.accept("(")){
+                CommandCondition condition = this.parseAny();
+                this.expect(")");
+                return condition;
+            }
+            return this.parseCheck();
+        }
+
+        /**
+         * Parses one check
+         * 
+         * @return The condition
+         * @throws InvalidConfigurationException If the expression isn't valid
+         */
+        private CommandCondition parseCheck() throws InvalidConfigurationException{
+            String name = this.peek();
+            if(name==null)
+                throw this.error("Expected a check");
+            switch(name.toLowerCase(Locale.ROOT)){
+                case "world":{
+                    this.next++;
+                    boolean equal = this.parseEquality();
+                    return new PlayersOnly(new WorldCheck(this.parseValue().split("[|]"), equal));
+                }
+                case "gamemode":{
+                    this.next++;
+                    boolean equal = this.parseEquality();
+                    int at = this.next;
+                    String[] names = this.parseValue().split("[|]");
+                    GameMode[] modes = new GameMode[names.length];
+                    for(int i=0;i<names.length;i++){
+                        try{
+                            modes[i] = GameMode.valueOf(names[i].toUpperCase(Locale.ROOT));
+                        } catch (IllegalArgumentException e) {
+                            throw this.error("Unknown gamemode '"+names[i]+"'", at);
+                        }
+                    }
+                    return new PlayersOnly(new GameModeCheck(modes, equal));
+                }
+                case "args":{
+                    this.next++;
+                    String operator = this.peek();
+                    if(operator==null || !Arrays.asList("==", "!=", "<", "<=", ">", ">=").contains(operator))
+                        throw this.error("Expected a comparison after args");
+                    this.next++;
+                    int at = this.next;
+                    String count = this.parseValue();
+                    try{
+                        return new ArgsCheck(operator, Integer.parseInt(count));
+                    } catch (NumberFormatException e) {
+                        throw this.error("Expected a number but got '"+count+"'", at);
+                    }
+                }
+                case "permission":{
+                    this.next++;
+                    this.expect("(");
+                    String permission = this.parseValue();
+                    this.expect(")");
+                    return new PermissionCheck(permission);
+                }
+                case "metadata":{
+                    this.next++;
+                    this.expect("(");
+                    String key = this.parseValue();
+                    this.expect(")");
+                    return new PlayersOnly(new MetadataCheck(key));
+                }
+                default:
+                    throw this.error("Unknown check '"+name+"'");
+            }
+        }
+
+        /**
+         * Parses == or !=
+         * 
+         * @return If it was ==
+         * @throws InvalidConfigurationException If it was neither
+         */
+        private boolean parseEquality() throws InvalidConfigurationException{
+            if(this.accept("=="))
+                return true;
+            if(this.accept("!="))
+                return false;
+            throw this.error("Expected == or !=");
+        }
+
+        /**
+         * Parses a name or number
+         * 
+         * @return The text of the value
+         * @throws InvalidConfigurationException If the next token isn't a value
+         */
+        private String parseValue() throws InvalidConfigurationException{
+            String value = this.peek();
+            if(value==null || !isValue(value.charAt(0)))
+                throw this.error("Expected a value");
+            this.next++;
+            return value;
+        }
+
+        /**
+         * Gets the next token without taking it
+         * 
+         * @return The token, null at the end of the expression
+         */
+        private String peek(){
+            return this.next<this.tokens.size() ? this.tokens.get(this.next) : null;
+        }
+
+        /**
+         * Takes the next token if it's the one given, ignoring case
+         * 
+         * @param token The token wanted
+         * @return If it was taken
+         */
+        private boolean accept(String token){
+            if(!token.equalsIgnoreCase(this.peek()))
+                return false;
+            this.next++;
+            return true;
+        }
+
+        /**
+         * Takes the next token, which has to be the one given
+         * 
+         * @param token The token wanted
+         * @throws InvalidConfigurationException If the next token is another one
+         */
+        private void expect(String token) throws InvalidConfigurationException{
+            if(!this.accept(token))
+                throw this.error("Expected '"+token+"'");
+        }
+
+        /**
+         * Creates an error at the next token
+         * 
+         * @param message What is wrong
+         * @return The error to throw
+         */
+        private InvalidConfigurationException error(String message){
+            return this.error(message, this.next);
+        }
+
+        /**
+         * Creates an error at a token
+         * 
+         * @param message What is wrong
+         * @param token The index of the token that is wrong
+         * @return The error to throw
+         */
+        private InvalidConfigurationException error(String message, int token){
+            String at = token<this.positions.size() ? " at "+(this.positions.get(token)+1) : " at the end";
+            return new InvalidConfigurationException("Invalid when expression '"+this.expression+"': "+message+at);
+        }
+
+    }
+
+    /**
+     * Sorts conditions cheapest first, keeping the order of conditions with the same cost
+     * 
+     * @param conditions The conditions
+     * @return The sorted conditions
+     */
+    private static CommandCondition[] sort(List<CommandCondition> conditions){
+        CommandCondition[] sorted = conditions.toArray(new CommandCondition[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(condition -> condition.cost));
+        return sorted;
+    }
+
+    /**
+     * Adds up the cost of conditions
+     * 
+     * @param conditions The conditions
+     * @return The total cost
+     */
+    private static int cost(List<CommandCondition> conditions){
+        return conditions.stream().mapToInt(condition -> condition.cost).sum();
+    }
+
+    /**
+     * Holds if every condition holds
+     */
+    private static class All extends CommandCondition {
+
+        private final CommandCondition[] conditions;
+
+        private All(List<CommandCondition> conditions){
+            super(cost(conditions));
+            this.conditions = sort(conditions);
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            for(CommandCondition condition : this.conditions)
+                if(!condition.test(sender, perms, tokens, from))
+                    return false;
+            return true;
+        }
+
+        @Override
+        void internPermissions(Map<String, Integer> indices){
+            for(CommandCondition condition : this.conditions)
+                condition.internPermissions(indices);
+        }
+
+        @Override
+        void collectPermissions(Set<String> permissions){
+            for(CommandCondition condition : this.conditions)
+                condition.collectPermissions(permissions);
+        }
+
+    }
+
+    /**
+     * Holds if any condition holds
+     */
+    private static class Any extends CommandCondition {
+
+        private final CommandCondition[] conditions;
+
+        private Any(List<CommandCondition> conditions){
+            super(cost(conditions));
+            this.conditions = sort(conditions);
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            for(CommandCondition condition : this.conditions)
+                if(condition.test(sender, perms, tokens, from))
+                    return true;
+            return false;
+        }
+
+        @Override
+        void internPermissions(Map<String, Integer> indices){
+            for(CommandCondition condition : this.conditions)
+                condition.internPermissions(indices);
+        }
+
+        @Override
+        void collectPermissions(Set<String> permissions){
+            for(CommandCondition condition : this.conditions)
+                condition.collectPermissions(permissions);
+        }
+
+    }
+
+    /**
+     * Holds if a condition doesn't hold
+     */
+    private static class Not extends CommandCondition {
+
+        private final CommandCondition condition;
+
+        private Not(CommandCondition condition){
+            super(condition.cost);
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            return !this.condition.test(sender, perms, tokens, from);
+        }
+
+        @Override
+        void internPermissions(Map<String, Integer> indices){
+            this.condition.internPermissions(indices);
+        }
+
+        @Override
+        void collectPermissions(Set<String> permissions){
+            this.condition.collectPermissions(permissions);
+        }
+
+    }
+
+    /**
+     * Holds if the sender is a player and the check holds, for checks of something only players have
+     * (Only wraps the check itself, so other senders fail that check but the rest of the expression still counts for them)
+     */
+    private static class PlayersOnly extends CommandCondition {
+
+        private final CommandCondition condition;
+
+        private PlayersOnly(CommandCondition condition){
+            super(condition.cost);
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            return sender instanceof Player && this.condition.test(sender, perms, tokens, from);
+        }
+
+        @Override
+        void internPermissions(Map<String, Integer> indices){
+            this.condition.internPermissions(indices);
+        }
+
+        @Override
+        void collectPermissions(Set<String> permissions){
+            this.condition.collectPermissions(permissions);
+        }
+
+    }
+
+    /**
+     * Compares the number of arguments after the command being checked
+     */
+    private static class ArgsCheck extends CommandCondition {
+
+        // The lowest and highest number of arguments in the range compared
+        private final int min;
+        private final int max;
+
+        // If the number has to be inside the range instead of outside it
+        private final boolean inside;
+
+        private ArgsCheck(String operator, int count){
+            super(COST_ARGS);
+            this.min = operator.equals(">") ? count+1 : operator.equals("<") || operator.equals("<=") ? Integer.MIN_VALUE : count;
+            this.max = operator.equals("<") ? count-1 : operator.equals(">") || operator.equals(">=") ? Integer.MAX_VALUE : count;
+            this.inside = !operator.equals("!=");
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            int args = tokens.size()-from;
+            return (args>=this.min && args<=this.max)==this.inside;
+        }
+
+    }
+
+    /**
+     * Checks a permission of the sender from its permission snapshot
+     */
+    private static class PermissionCheck extends CommandCondition {
+
+        private final String permission;
+
+        // The index the permission was interned at by the tree
+        private int index = -1;
+
+        private PermissionCheck(String permission){
+            super(COST_PERMISSION);
+            this.permission = permission;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            return this.index>=0 && perms.has(this.index);
+        }
+
+        @Override
+        void internPermissions(Map<String, Integer> indices){
+            this.index = indices.computeIfAbsent(this.permission, k -> indices.size());
+        }
+
+        @Override
+        void collectPermissions(Set<String> permissions){
+            permissions.add(this.permission);
+        }
+
+    }
+
+    /**
+     * Checks the gamemode of the player
+     */
+    private static class GameModeCheck extends CommandCondition {
+
+        private final GameMode[] modes;
+        private final boolean equal;
+
+        private GameModeCheck(GameMode[] modes, boolean equal){
+            super(COST_GAMEMODE);
+            this.modes = modes;
+            this.equal = equal;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            GameMode mode = ((Player) sender).getGameMode();
+            for(GameMode wanted : this.modes)
+                if(wanted==mode)
+                    return this.equal;
+            return !this.equal;
+        }
+
+    }
+
+    /**
+     * Checks the name of the world the player is in
+     */
+    private static class WorldCheck extends CommandCondition {
+
+        private final String[] names;
+        private final boolean equal;
+
+        private WorldCheck(String[] names, boolean equal){
+            super(COST_WORLD);
+            this.names = names;
+            this.equal = equal;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            World world = ((Player) sender).getWorld();
+            if(world==null)
+                return false;
+            String name = world.getName();
+            for(String wanted : this.names)
+                if(wanted.equals(name))
+                    return this.equal;
+            return !this.equal;
+        }
+
+    }
+
+    /**
+     * Checks if the player has a metadata key set by another plugin, like a combat tag
+     */
+    private static class MetadataCheck extends CommandCondition {
+
+        private final String key;
+
+        private MetadataCheck(String key){
+            super(COST_METADATA);
+            this.key = key;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, int from){
+            return ((Player) sender).hasMetadata(this.key);
+        }
+
+    }
+
+}
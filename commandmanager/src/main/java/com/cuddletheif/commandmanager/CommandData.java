@@ -1,16 +1,19 @@
 package com.cuddletheif.commandmanager;
 
-import java.lang.reflect.Field;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.bukkit.Bukkit;
-import org.bukkit.command.CommandMap;
 import org.bukkit.command.CommandSender;
-import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.entity.Player;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.event.Listener;
 
 /**
@@ -18,78 +21,151 @@ import org.bukkit.event.Listener;
  */
 public class CommandData implements Listener{
 
+    // Bits of the flags of a command as set in the config
+    static final short DISABLED = 1;
+    static final short ENABLED = 1<<1;
+    static final short HIDDEN = 1<<2;
+    static final short UNHIDDEN = 1<<3;
+    static final short DISABLE_SUB = 1<<4;
+    static final short ENABLE_SUB = 1<<5;
+    static final short HIDE_SUB = 1<<6;
+    static final short UNHIDE_SUB = 1<<7;
+    static final short SERVER = 1<<8;
+    static final short REDIRECT = 1<<9;
+    static final short QUEUED = 1<<10;
+
+    // Bits of the flags worked out from the ones set, so each check is a single test
+    static final short BLOCKS = 1<<11;
+    static final short BLOCKS_SUB = 1<<12;
+    static final short HIDES = 1<<13;
+    static final short HIDES_SUB = 1<<14;
+
+    // Every bit set in the config
+    private static final short SET_FLAGS = BLOCKS-1;
+
+    // Shared by every command without argument matchers or new commands, since most huge configs have thousands
+    private static final ArgumentMatcher[] NO_MATCHERS = new ArgumentMatcher[0];
+    private static final CommandTemplate[] NO_TEMPLATES = new CommandTemplate[0];
+
     // The names of the command
     private String[] names;
 
-    // The permission of the user using the command to affect
-    private String permission = null;
+    // The argument matchers among the names (Empty if every name is literal)
+    private ArgumentMatcher[] matchers;
 
-    // If the default action of the command should be disabled
-    private boolean disabled;
+    // The bits of the argument matchers in the command automaton
+    private long matcherBits;
 
-    // If the default action of the command should be enabled (This takes priority over disabled)
-    private boolean enabled;
+    // The basic names of this command and every command above it separated by spaces
+    private String path;
 
-    // If the command should be hidden from tab completion
-    private boolean hidden;
+    // How many commands are above this one, so its arguments start at the token after it
+    private int depth;
 
-    // If the command should not be hidden from tab completion (This takes priority over hidden)
-    private boolean unhidden;
+    // The permission of the user using the command to affect
+    private String permission = null;
 
-    // If the sub commands of this command should also be disabled
-    private boolean disableSub;
+    // The index the permission was interned at by the tree (-1 for no permission)
+    private int permissionIndex = -1;
 
-    // If the sub commands of this command should also be enabled
-    private boolean enableSub;
+    // The interned permissions of this command and every command above it
+    private int[] pathPermissions;
 
-    // If the sub commands of this command be hidden from tab completion
-    private boolean hideSub;
+    // The flags of the command with the ones inherited from its parent applied
+    private short flags;
 
-    // If the sub commands of this command not be hidden from tab completion (This takes priority over hideSub)
-    private boolean unhideSub;
+    // The when expression deciding if the command applies to the sender, null if it always applies
+    private String when;
 
-    // If the new commands should be run as the server
-    private boolean server;
+    // The compiled when expression, null if the command always applies
+    private CommandCondition condition;
 
     // The command to run when this command is run
-    private String[] newCommands;
+    private CommandTemplate[] newCommands;
 
     // The subcommands of this command to add to tab completion
     private CommandData[] subCommands;
 
+    // The subcommands of this command keyed by each of their lower cased names
+    private NameTable<CommandData[]> subIndex;
+
+    // The subcommands of this command sorted by name for tab completion
+    private PrefixIndex prefixIndex;
+
+    // The subcommands of this command that can be hidden keyed by each of their lower cased names
+    private NameTable<CommandData[]> hiddenIndex;
+
+    // The subcommands of this command with argument matchers that can be hidden
+    private CommandData[] hiddenMatchers;
+
     // Description of the command used when registering it
     private String description;
+
+    // Milliseconds before the same player can queue the new commands again (-1 for the queue's default)
+    private long queueCooldown;
+
+    // Nanoseconds a player has to wait between uses of this command (0 for none)
+    private long cooldown;
+
+    // Most times a player can use this command each minute (0 for no limit)
+    private int maxPerMinute;
+
+    // The permission that skips the cooldown and max per minute
+    private String bypassPermission;
+
+    // The index the bypass permission was interned at by the tree (-1 if the command isn't limited)
+    private int bypassIndex = -1;
     
     /**
      * Gets and stores the command data from a config section
      * 
      * @param section Section holding all the data of the command
      * @param topCommand If this command is a top command and should be registered
+     * @throws InvalidConfigurationException If the section or one of its sub commands is missing a name
      */
-    public CommandData(ConfigurationSection section, boolean topCommand){
+    public CommandData(ConfigurationSection section, boolean topCommand) throws InvalidConfigurationException{
         
         // Get all the data for this command
-        this.names = section.getString("name").split("[|]");
+        String name = section.getString("name");
+        if(name==null || name.isBlank())
+            throw new InvalidConfigurationException("Command '"+section.getCurrentPath()+"' is missing a name");
+        this.names = ArgumentMatcher.isRegex(name) ? new String[]{name} : name.split("[|]");
+        this.matchers = parseMatchers(this.names);
+        if(topCommand && this.matchers.length>0)
+            throw new InvalidConfigurationException("Command '"+section.getCurrentPath()+"' can only use argument matchers as a sub command");
+
+        // Top commands match every spelling of their labels so store them the way incoming labels are normalized
+        if(topCommand)
+            for(int i=0;i<this.names.length;i++)
+                this.names[i] = CommandTree.normalizeLabel(this.names[i]);
+        internNames(this.names);
         if(section.contains("permission"))
-            this.permission = section.getString("permission");
-        System.out.print(this.permission);
-        this.disabled = section.getBoolean("disabled");
-        this.enabled = section.getBoolean("enabled");
-        this.hidden = section.getBoolean("hidden");
-        this.unhidden = section.getBoolean("unhidden");
-        this.disableSub = section.getBoolean("disabled-sub");
-        this.enableSub = section.getBoolean("enabled-sub");
-        this.hideSub = section.getBoolean("hide-sub");
-        this.unhideSub = section.getBoolean("unhide-sub");
-        this.server = section.getBoolean("server");
+            this.permission = intern(section.getString("permission"));
+        if(section.contains("when"))
+            this.setWhen(section.getString("when"), section.getCurrentPath());
+        int flags = (section.getBoolean("disabled") ? DISABLED : 0)
+            | (section.getBoolean("enabled") ? ENABLED : 0)
+            | (section.getBoolean("hidden") ? HIDDEN : 0)
+            | (section.getBoolean("unhidden") ? UNHIDDEN : 0)
+            | (section.getBoolean("disabled-sub") ? DISABLE_SUB : 0)
+            | (section.getBoolean("enabled-sub") ? ENABLE_SUB : 0)
+            | (section.getBoolean("hide-sub") ? HIDE_SUB : 0)
+            | (section.getBoolean("unhide-sub") ? UNHIDE_SUB : 0)
+            | (section.getBoolean("server") ? SERVER : 0)
+            | ("queued".equalsIgnoreCase(section.getString("dispatch")) ? QUEUED : 0);
         this.description = section.getString("description");
+        this.queueCooldown = section.getLong("queue-cooldown", -1);
+        this.cooldown = Math.max(0, (long)(section.getDouble("cooldown")*1_000_000_000L));
+        this.maxPerMinute = Math.max(0, section.getInt("max-per-minute"));
+        this.bypassPermission = intern(section.getString("bypass-permission", "commandmanager.bypass.limits"));
         if(section.contains("new-commands")){
-            if(topCommand && this.disabled)
-                this.registerCommand();
-            this.newCommands = section.getStringList("new-commands").toArray(new String[0]);
+            if(topCommand && (flags&DISABLED)!=0)
+                flags |= REDIRECT;
+            this.newCommands = section.getStringList("new-commands").stream().map(CommandTemplate::new).toArray(CommandTemplate[]::new);
         }
         else
-            this.newCommands = new String[0];
+            this.newCommands = NO_TEMPLATES;
+        this.flags = resolve(flags);
         
         // Get all the sub commands of this command
         if(section.contains("subcommands")){
@@ -97,55 +173,190 @@ public class CommandData implements Listener{
             Set<String> sectKeys = subSections.getKeys(false);
             this.subCommands = new CommandData[sectKeys.size()];
             var  i = 0;
-            for(String key : sectKeys)
+            for(String key : sectKeys){
+                if(!subSections.isConfigurationSection(key))
+                    throw new InvalidConfigurationException("Sub command '"+subSections.getCurrentPath()+"."+key+"' is not a section");
                 this.subCommands[i++] = new CommandData(subSections.getConfigurationSection(key), this);
+            }
             
         }
         else
-            this.subCommands = new CommandData[0];
+            this.subCommands = CommandTree.NO_COMMANDS;
+        this.indexSubCommands();
+        if(topCommand)
+            this.setPath(null, 0);
 
     }
 
     /**
-     * Registers the command to bukkit for the tab list
+     * Gets the command data of a node of a tree snapshot
+     * 
+     * @param snapshot The snapshot holding the command
+     * @param node The node of the command in the snapshot
+     * @param topCommand If this command is a top command
+     * @throws InvalidConfigurationException If a regular expression in the names is invalid
      */
-    private void registerCommand(){
+    CommandData(TreeSnapshot snapshot, int node, boolean topCommand) throws InvalidConfigurationException{
+
+        // Get all the data for this command, the flags inherited from its parent were already applied when the snapshot was taken
+        this.names = snapshot.getNames(node);
+        internNames(this.names);
+        this.matchers = parseMatchers(this.names);
+        this.permission = intern(snapshot.getPermission(node));
+        if(snapshot.getWhen(node)!=null)
+            this.setWhen(snapshot.getWhen(node), this.names[0]);
+        this.flags = resolve(snapshot.getFlags(node));
+        this.description = snapshot.getDescription(node);
+        this.queueCooldown = snapshot.getQueueCooldown(node);
+        this.cooldown = snapshot.getCooldown(node);
+        this.maxPerMinute = snapshot.getMaxPerMinute(node);
+        this.bypassPermission = intern(snapshot.getBypassPermission(node));
+        String[] newCommands = snapshot.getNewCommands(node);
+        this.newCommands = newCommands.length==0 ? NO_TEMPLATES : Arrays.stream(newCommands).map(CommandTemplate::new).toArray(CommandTemplate[]::new);
 
-        // Check if the command already exists and if it does just override it
-        PluginCommand command = Bukkit.getPluginCommand(this.getName());
-        if(command!=null){
-            if(this.description!=null)
-                command.setDescription(this.description);
-            if(this.permission!=null)
-                command.setPermission(this.permission);
-            if(this.names.length>1){
-                ArrayList<String> aliases = new ArrayList<>();
-                for(int i=1;i<names.length;i++)
-                    aliases.add(names[i]);
-                command.setAliases(aliases);
-            }
-            else
-                command.setAliases(new ArrayList<>());
-            command.setExecutor(new CustomExecutor());
+        // Get all the sub commands of this command
+        int first = snapshot.getFirstChild(node);
+        this.subCommands = snapshot.getChildCount(node)==0 ? CommandTree.NO_COMMANDS : new CommandData[snapshot.getChildCount(node)];
+        for(int i=0;i<this.subCommands.length;i++)
+            this.subCommands[i] = new CommandData(snapshot, first+i, false);
+        this.indexSubCommands();
+        if(topCommand)
+            this.setPath(null, 0);
+
+    }
+
+    /**
+     * Sets the when expression of this command, compiling it
+     * 
+     * @param when The text of the expression
+     * @param path Where the command is in the config for errors
+     * @throws InvalidConfigurationException If the expression isn't valid
+     */
+    private void setWhen(String when, String path) throws InvalidConfigurationException{
+        if(when==null || when.isBlank())
+            throw new InvalidConfigurationException("Command '"+path+"' has an empty when expression");
+        try{
+            this.condition = CommandCondition.parse(when);
+        } catch (InvalidConfigurationException e) {
+            throw new InvalidConfigurationException("Command '"+path+"': "+e.getMessage());
         }
-        // If the command does not exist just try to add it
-        else{
-
-            try{   
-                
-                Field bukkitCommandMap = Bukkit.getServer().getClass().getDeclaredField("commandMap");
-
-                bukkitCommandMap.setAccessible(true);
-                CommandMap commandMap = (CommandMap) bukkitCommandMap.get(Bukkit.getServer());
-
-                ArrayList<String> aliases = new ArrayList<>();
-                for(int i=1;i<names.length;i++)
-                    aliases.add(names[i]);
-                commandMap.register("seen", new CustomCommand(this.getName(), this.description, this.permission, aliases));
-                
-            } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {}
-            
+        this.when = when;
+    }
+
+    /**
+     * Gets the argument matchers among the given names
+     * 
+     * @param names The names of a command
+     * @return The matchers in the order of the names (Empty if every name is literal)
+     * @throws InvalidConfigurationException If a regular expression is invalid
+     */
+    private static ArgumentMatcher[] parseMatchers(String[] names) throws InvalidConfigurationException{
+        List<ArgumentMatcher> matchers = new ArrayList<>();
+        for(String name : names){
+            ArgumentMatcher matcher = ArgumentMatcher.parse(name);
+            if(matcher!=null)
+                matchers.add(matcher);
         }
+        return matchers.toArray(NO_MATCHERS);
+    }
+
+    /**
+     * Interns the names of a command, since generated configs repeat the same sub command names and aliases under thousands of commands
+     * 
+     * @param names The names to intern in place
+     */
+    private static void internNames(String[] names){
+        for(int i=0;i<names.length;i++)
+            names[i] = names[i].intern();
+    }
+
+    /**
+     * Interns a permission or other string repeated across many commands
+     * 
+     * @param string The string to intern (May be null)
+     * @return the interned string, null if it was null
+     */
+    private static String intern(String string){
+        return string==null ? null : string.intern();
+    }
+
+    /**
+     * Indexes the sub commands of this command by name for looking them up and for tab completion
+     */
+    private void indexSubCommands(){
+        this.subIndex = CommandTree.index(this.subCommands);
+        this.prefixIndex = this.subCommands.length==0 ? PrefixIndex.EMPTY : new PrefixIndex(this.subCommands);
+        this.hiddenIndex = CommandTree.index(Arrays.stream(this.subCommands).filter(subCmd -> (subCmd.flags&HIDES)!=0).toArray(CommandData[]::new));
+        CommandData[] hiddenMatchers = Arrays.stream(this.subCommands).filter(subCmd -> (subCmd.flags&HIDES)!=0 && subCmd.matchers.length>0).toArray(CommandData[]::new);
+        this.hiddenMatchers = hiddenMatchers.length>0 ? hiddenMatchers : CommandTree.NO_COMMANDS;
+    }
+
+    /**
+     * Works out the flags that combine the flags set, where enabled and unhidden take priority over disabled and hidden
+     * 
+     * @param flags The flags set
+     * @return The flags set with the combined ones
+     */
+    private static short resolve(int flags){
+        flags &= SET_FLAGS;
+        if((flags&DISABLED)!=0 && (flags&ENABLED)==0)
+            flags |= BLOCKS;
+        if((flags&DISABLE_SUB)!=0 && (flags&ENABLE_SUB)==0)
+            flags |= BLOCKS_SUB;
+        if((flags&HIDDEN)!=0 && (flags&UNHIDDEN)==0)
+            flags |= HIDES;
+        if((flags&HIDE_SUB)!=0 && (flags&UNHIDE_SUB)==0)
+            flags |= HIDES_SUB;
+        return (short) flags;
+    }
+
+    /**
+     * Gets the flags of this command for a tree snapshot
+     * 
+     * @return The bits of every flag that is set
+     */
+    short getFlags(){
+        return this.flags;
+    }
+
+    /**
+     * Gets the new commands run when this command is run
+     * 
+     * @return the new commands in config order
+     */
+    CommandTemplate[] getNewCommands(){
+        return this.newCommands;
+    }
+
+    /**
+     * Checks if this command runs new commands
+     * 
+     * @return If the command has any new commands
+     */
+    public boolean hasNewCommands(){
+        return this.newCommands.length>0;
+    }
+
+    /**
+     * Checks if this is a disabled top command with new commands that should be registered
+     * 
+     * @return If the command should be registered
+     */
+    public boolean isRedirect(){
+        return (this.flags&REDIRECT)!=0;
+    }
+
+    /**
+     * Sets the path and depth of this command and every sub command under it
+     * 
+     * @param parentPath The path of the command above this one, null if this is a top command
+     * @param depth The number of commands above this one
+     */
+    private void setPath(String parentPath, int depth){
+        this.path = parentPath==null ? this.getName() : parentPath+" "+this.getName();
+        this.depth = depth;
+        for(CommandData subCmd : this.subCommands)
+            subCmd.setPath(this.path, depth+1);
     }
 
      /**
@@ -153,122 +364,128 @@ public class CommandData implements Listener{
      * 
      * @param section Section holding all the data of the command
      * @param parent The parent command data for copying hide sub and disable sub, etc.
+     * @throws InvalidConfigurationException If the section or one of its sub commands is missing a name
      */
-    private CommandData(ConfigurationSection section, CommandData parent){
+    private CommandData(ConfigurationSection section, CommandData parent) throws InvalidConfigurationException{
         
         // Call the normal constructor
         this(section, false);
 
         // Override the given values
-        if(parent.hideSub && !section.contains("hidden"))
-            this.hidden = true;
-        if(parent.unhideSub && !section.contains("unhidden"))
-            this.unhidden = true;
-        if(parent.disableSub && !section.contains("disabled"))
-            this.disabled = true; 
-        if(parent.enableSub && !section.contains("enabled"))
-            this.enabled = true; 
+        int flags = this.flags;
+        if((parent.flags&HIDE_SUB)!=0 && !section.contains("hidden"))
+            flags |= HIDDEN;
+        if((parent.flags&UNHIDE_SUB)!=0 && !section.contains("unhidden"))
+            flags |= UNHIDDEN;
+        if((parent.flags&DISABLE_SUB)!=0 && !section.contains("disabled"))
+            flags |= DISABLED;
+        if((parent.flags&ENABLE_SUB)!=0 && !section.contains("enabled"))
+            flags |= ENABLED;
+        this.flags = resolve(flags);
         if(parent.permission!=null && !section.contains("permission"))
             this.permission = parent.permission; 
+        if(parent.when!=null && !section.contains("when"))
+            this.inheritWhen(parent.when, parent.condition);
 
     }
 
     /**
-     * Gets the command data of the given command if it's this one or a sub command of this one
+     * Uses the when expression of a command above this one, for this command and the sub commands below it without their own
+     * (Sub commands are built before their command inherits anything so they're updated here)
      * 
-     * @param sender The sender trying to run the command
-     * @param fullCommand The full text of the command
-     * @return The command data of the command (If it's this one or a sub command) null if not found
+     * @param when The text of the expression
+     * @param condition The compiled expression
      */
-    public CommandData getCommandData(CommandSender sender, String command){
-
-        // Split the command into the name and args
-        String[] cmdParts = command.split(" ");
-
-        // Check if it's even this command and the sender has perms
-        if(this.isFullCommand(cmdParts[0]) && this.hasPermission(sender)){
-
-            // Check if it's this command or a sub command
-            if(cmdParts.length==1)
-                return this;
-            else{
-
-                // Check each sub command to see if one matches and returns it
-                String commandAfter = command.substring(cmdParts[0].length()).trim();
-                if(this.subCommands!=null){
-                    for(CommandData subCmd : this.subCommands){
-
-                        CommandData subData = subCmd.getCommandData(sender, commandAfter);
-                        if(subData!=null)
-                            return subData;
+    private void inheritWhen(String when, CommandCondition condition){
+        this.when = when;
+        this.condition = condition;
+        for(CommandData subCmd : this.subCommands)
+            if(subCmd.when==null)
+                subCmd.inheritWhen(when, condition);
+    }
 
-                    }
-                }
+    /**
+     * Gets the sub commands with the name or alias of the given token
+     * 
+     * @param tokens The tokens of the command
+     * @param token The index of the token with the name of the sub command
+     * @return The sub commands with that name in config order (Empty if none)
+     */
+    public CommandData[] getSubCommands(CommandTokens tokens, int token){
+        CommandData[] subCmds = this.subIndex.get(tokens.getText(), tokens.start(token), tokens.end(token));
+        return subCmds!=null ? subCmds : CommandTree.NO_COMMANDS;
+    }
 
-            }
-        }
+    /**
+     * Gets every sub command of this command
+     * 
+     * @return the sub commands in config order
+     */
+    public CommandData[] getSubCommands(){
+        return this.subCommands;
+    }
 
-        // If reached here no command data was found so return null
+    /**
+     * Finds the first sub command a token matches, checking the literal names before the argument matchers
+     * 
+     * @param tokens The tokens of the command
+     * @param token The index of the token
+     * @return The sub command, null if none match
+     */
+    private CommandData findSubCommand(CommandTokens tokens, int token){
+        CommandData[] subCmds = this.getSubCommands(tokens, token);
+        if(subCmds.length>0)
+            return subCmds[0];
+        for(CommandData subCmd : this.subCommands)
+            if(subCmd.matchers.length>0 && subCmd.matches(tokens.getText(), tokens.start(token), tokens.end(token)))
+                return subCmd;
         return null;
-
     }
 
     /**
      * Checks if the tab list should be edited for the command
      * 
-     * @param buffer The full text of the command so far
-     * @param sender The sender who is trying to run the command
+     * @param tokens The tokens of the buffer being completed
+     * @param next The index of the token after this command
+     * @param perms The permissions of the sender who is trying to run the command
      * @param completions The tab list before editing
      * @return The new tab list
      */
-    public List<String> getTabList(String buffer, CommandSender sender, List<String> completions){
+    public List<String> getTabList(CommandTokens tokens, int next, PermissionSnapshot perms, List<String> completions){
 
         // Check if this command applies to the player
-        if(this.hasPermission(sender)){
+        if(this.hasPermission(perms)){
 
             // Check if it's this command or a sub command
-            if(buffer.indexOf(" ")==-1){
+            if(next>=tokens.completed()){
 
                 // Check if all sub commands should be hidden
-                if(!this.unhideSub && this.hideSub)
+                if((this.flags&HIDES_SUB)!=0)
                     completions.clear();
-                else{
+                else if(!this.hiddenIndex.isEmpty() || this.hiddenMatchers.length>0){
 
                     // hide any subcommands that are hidden
-                    for(CommandData subCmd : this.subCommands){
-
-                        if(subCmd.isHidden(sender)){
-                            ArrayList<String> removes = new ArrayList<String>();
-                            for (String completion : completions)
-                                if(subCmd.isCommand(completion))
-                                    removes.add(completion);
-                            for(String toRemove : removes)
-                                completions.remove(toRemove);
-                        }
-
-                    }
+                    completions.removeIf(completion -> this.isHiddenSubCommand(completion, perms));
                     
                 }
 
-                // Add any unhidden sub commands that apply
-                for(CommandData subCmd : this.subCommands)
-                    if(!subCmd.isHidden(sender) && subCmd.isCommand(buffer) && completions.indexOf(subCmd.getName())==-1) 
+                // Add any unhidden sub commands that start with the token being typed
+                CharSequence text = tokens.getText();
+                int start = next<tokens.size() ? tokens.start(next) : text.length();
+                int end = next<tokens.size() ? tokens.end(next) : text.length();
+                for(int i=this.prefixIndex.first(text, start, end);this.prefixIndex.matches(i, text, start, end);i++){
+                    CommandData subCmd = this.prefixIndex.getCommand(i);
+                    if(!subCmd.isHidden(perms) && !completions.contains(subCmd.getName())) 
                         completions.add(subCmd.getName());
+                }
 
             }
             else{
 
-                // Get the name of the sub command and the new buffer
-                var command = buffer.substring(0, buffer.indexOf(" ")).trim();
-                if(command.length()+1<buffer.length())
-                    buffer = buffer.substring(command.length()+1);
-                else
-                    buffer = "";
-
                 // Check if it is a sub command and return their tab list instead
-                for(CommandData subCmd : this.subCommands)
-                    if(subCmd.isFullCommand(command))
-                        return subCmd.getTabList(buffer, sender, completions);
+                CommandData subCmd = this.findSubCommand(tokens, next);
+                if(subCmd!=null)
+                    return subCmd.getTabList(tokens, next+1, perms, completions);
             }
 
         }
@@ -279,31 +496,132 @@ public class CommandData implements Listener{
     }
 
     /**
-     * Checks if the command is the buffer of command given
+     * Checks if this command throws away the completions it is given for the buffer, so it decides every completion itself
      * 
-     * @param partialCmd The text of the command so far
-     * @return If it is this command
+     * @param tokens The tokens of the buffer being completed
+     * @param next The index of the token after this command
+     * @param perms The permissions of the sender who is trying to run the command
+     * @return If {@link #getTabList(CommandTokens, int, PermissionSnapshot, List)} clears the completions
      */
-    public boolean isCommand(String partialCmd){
-        for(String name : this.names)
-            if(name.startsWith(partialCmd))
+    public boolean isTabListDecided(CommandTokens tokens, int next, PermissionSnapshot perms){
+
+        // Follow the buffer the same way as the tab list
+        if(!this.hasPermission(perms))
+            return false;
+        if(next>=tokens.completed())
+            return (this.flags&HIDES_SUB)!=0;
+        CommandData subCmd = this.findSubCommand(tokens, next);
+        return subCmd!=null && subCmd.isTabListDecided(tokens, next+1, perms);
+
+    }
+
+    /**
+     * Checks if the given completion is the name of a sub command hidden from the sender
+     * 
+     * @param completion The completion to check
+     * @param perms The permissions of the sender who is trying to run the command
+     * @return If the completion should be removed
+     */
+    private boolean isHiddenSubCommand(String completion, PermissionSnapshot perms){
+        CommandData[] hiddenCmds = this.hiddenIndex.get(completion);
+        if(hiddenCmds!=null)
+            for(CommandData subCmd : hiddenCmds)
+                if(subCmd.hasPermission(perms))
+                    return true;
+        for(CommandData subCmd : this.hiddenMatchers)
+            if(subCmd.hasPermission(perms) && subCmd.matches(completion))
                 return true;
         return false;
     }
-    
+
+    /**
+     * Pairs each of the old commands with the new command with the same names, then their sub commands the same way
+     * (Commands with the same names are paired in config order)
+     * 
+     * @param from The old commands
+     * @param to The new commands
+     * @param kept The new command of each old command paired so far
+     */
+    static void carryOver(CommandData[] from, CommandData[] to, Map<CommandData, CommandData> kept){
+        if(from.length==0 || to.length==0)
+            return;
+        Map<List<String>, Deque<CommandData>> byNames = new HashMap<>();
+        for(CommandData cmd : from)
+            byNames.computeIfAbsent(Arrays.asList(cmd.names), k -> new ArrayDeque<>()).add(cmd);
+        for(CommandData cmd : to){
+            Deque<CommandData> same = byNames.get(Arrays.asList(cmd.names));
+            CommandData old = same!=null ? same.poll() : null;
+            if(old!=null){
+                kept.put(old, cmd);
+                carryOver(old.subCommands, cmd.subCommands, kept);
+            }
+        }
+    }
+
+    /**
+     * Checks if a token matches one of the names or argument matchers of the command
+     * 
+     * @param token The token
+     * @return If the token matches
+     */
+    public boolean matches(String token){
+        return this.matches(token, 0, token.length());
+    }
+
     /**
-     * Checks if the command is the full name of the command given
+     * Checks if the token in the given region of some text matches one of the names or argument matchers of the command, ignoring case
      * 
-     * @param partialCmd The text name of the command
-     * @return If it is this command 
+     * @param text The text holding the token
+     * @param start The index of the first character of the token
+     * @param end The index after the last character of the token
+     * @return If the token matches
      */
-    public boolean isFullCommand(String cmd){
+    public boolean matches(CharSequence text, int start, int end){
         for(String name : this.names)
-            if(name.equals(cmd))
+            if(NameTable.equalsIgnoreCase(name, text, start, end) && !ArgumentMatcher.isMatcher(name))
+                return true;
+        for(ArgumentMatcher matcher : this.matchers)
+            if(matcher.matches(text, start, end))
                 return true;
         return false;
     }
 
+    /**
+     * Gets the argument matchers among the names of the command
+     * 
+     * @return the matchers, empty if every name is literal
+     */
+    public ArgumentMatcher[] getMatchers(){
+        return this.matchers;
+    }
+
+    /**
+     * Gets the bits of the argument matchers in the command automaton
+     * 
+     * @return the bits, 0 if every name is literal
+     */
+    long getMatcherBits(){
+        return this.matcherBits;
+    }
+
+    /**
+     * Sets the bits of the argument matchers in the command automaton
+     * 
+     * @param matcherBits The bit of each matcher at the command's depth
+     */
+    void setMatcherBits(long matcherBits){
+        this.matcherBits = matcherBits;
+    }
+
+    /**
+     * Gets every name of the command
+     * 
+     * @return the names of the command, the basic name first
+     */
+    public String[] getNames(){
+        return this.names;
+    }
+
     /**
      * Gets the basic name of the command
      * 
@@ -313,73 +631,249 @@ public class CommandData implements Listener{
         return this.names[0];
     }
 
+    /**
+     * Gets the basic names of this command and every command above it
+     * 
+     * @return the names separated by spaces, like the command would be typed
+     */
+    public String getPath(){
+        return this.path;
+    }
+
+    /**
+     * Gets the description of the command used when registering it
+     * 
+     * @return the description, null if not set
+     */
+    public String getDescription(){
+        return this.description;
+    }
+
+    /**
+     * Gets the permission of the players this command affects
+     * 
+     * @return the permission, null if it affects everyone
+     */
+    public String getPermission(){
+        return this.permission;
+    }
+
+    /**
+     * Checks if players have to wait between uses of this command
+     * 
+     * @return If the command has a cooldown or max per minute
+     */
+    public boolean isLimited(){
+        return this.cooldown>0 || this.maxPerMinute>0;
+    }
+
+    /**
+     * Gets the time players have to wait between uses of this command
+     * 
+     * @return the cooldown in nanoseconds, 0 for none
+     */
+    public long getCooldown(){
+        return this.cooldown;
+    }
+
+    /**
+     * Gets the most times a player can use this command each minute
+     * 
+     * @return the max per minute, 0 for no limit
+     */
+    public int getMaxPerMinute(){
+        return this.maxPerMinute;
+    }
+
+    /**
+     * Gets the permission that skips the cooldown and max per minute of this command
+     * 
+     * @return the bypass permission
+     */
+    public String getBypassPermission(){
+        return this.bypassPermission;
+    }
+
     /**
      * Checks if this command should be hidden from the Tab menu
      * 
-     * @param sender The sender trying to run the command
+     * @param perms The permissions of the sender trying to run the command
      * @return If it is command should be hidden
      */
-    public boolean isHidden(CommandSender sender){
-        return !this.unhidden && this.hidden && this.hasPermission(sender);
+    public boolean isHidden(PermissionSnapshot perms){
+        return (this.flags&HIDES)!=0 && this.hasPermission(perms);
     }
 
     /**
      * Runs the new commands of this command by the given sender (If they have the permission)
      * 
      * @param sender The sender of the command to run the new commands
+     * @param perms The permissions of the sender
+     * @param tokens The tokens of the command run for filling in the argument placeholders
+     * @param queue The queue to run the new commands through if this command is queued
+     * @param dispatched The list to add the new commands run or queued to, null if they aren't needed
      */
-    public void runNewCommands(CommandSender sender){
+    public void runNewCommands(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens, DispatchQueue queue, List<String> dispatched){
 
         // Make sure the sender can run the command
-        if(this.hasPermission(sender))
-            for(String command : newCommands){
-                
-                // Replace any placeholders
-                String finalCommand = command.replaceAll("%sender%", sender.getName());
-
-                // Run the command (as the sender or server)
-                Bukkit.getServer().dispatchCommand((this.server ? Bukkit.getConsoleSender() : sender), finalCommand);
+        if(!this.hasPermission(perms) || this.newCommands.length==0)
+            return;
+        CommandSender runAs = (this.flags&SERVER)!=0 ? Bukkit.getConsoleSender() : sender;
+
+        // Queue the commands to run over the next ticks
+        if((this.flags&QUEUED)!=0){
+            String[] finalCommands = new String[this.newCommands.length];
+            for(int i=0;i<finalCommands.length;i++)
+                finalCommands[i] = this.newCommands[i].render(sender, tokens);
+            if(!queue.submit(sender, this, runAs, finalCommands)){
+                if(!queue.getMessage().isEmpty())
+                    sender.sendMessage(queue.getMessage());
             }
+            else if(dispatched!=null)
+                Collections.addAll(dispatched, finalCommands);
+            return;
+        }
+
+        for(CommandTemplate command : newCommands){
+            
+            // Replace any placeholders
+            String finalCommand = command.render(sender, tokens);
+
+            // Run the command (as the sender or server)
+            Bukkit.getServer().dispatchCommand(runAs, finalCommand);
+            if(dispatched!=null)
+                dispatched.add(finalCommand);
+        }
 
     }
 
+    /**
+     * Gets the cooldown of the new commands when queued
+     * 
+     * @return Milliseconds before the same player can queue them again, -1 to use the queue's default
+     */
+    public long getQueueCooldown(){
+        return this.queueCooldown;
+    }
+
     
     /**
-     * Checks if the given sender has permissions for this command
+     * Checks if the given permissions have the permission for this command
      * 
-     * @param sender The sender of this command
+     * @param perms The permissions of the sender of this command
      * @return if the player has permission for this command
      */
-    public boolean hasPermission(CommandSender sender){
-        return !(sender instanceof Player) || this.permission==null || sender.hasPermission(this.permission);
+    public boolean hasPermission(PermissionSnapshot perms){
+        return perms.has(this.permissionIndex);
     }
 
     /**
-     * Checks if the given sender can run the given command's default version (If it is not this command or a sub command will return true)
+     * Checks if the when expression of this command holds for the sender
      * 
-     * @param sender The sender trying to run the command
-     * @param args The full text of the arguments of the command
-     * @return If the command's default version can be run
+     * @param sender The sender of the command
+     * @param perms The permissions of the sender
+     * @param tokens The tokens of the command
+     * @return If the command applies to the sender, always true if it has no when expression
      */
-    public boolean canRunDefault(CommandSender sender, String args){
+    public boolean isConditionMet(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+        return this.condition==null || this.condition.test(sender, perms, tokens, this.depth+1);
+    }
 
-        // Check if it's this command or a sub command
-        if(args=="")
-            return this.hasPermission(sender) && (this.enabled || !this.disabled);
-        else{
+    /**
+     * Checks if this command has a when expression, so whether it applies depends on more than permissions
+     * 
+     * @return If it has one
+     */
+    public boolean isConditional(){
+        return this.condition!=null;
+    }
 
-            // Check each sub command to see if one matches and check that one if so instead
-            String subCommand = args.split(" ")[0].trim();
-            String subArgs = args.substring(subCommand.length()).trim();
-            if(this.subCommands!=null)
-                for(CommandData subCmd : this.subCommands)
-                    if(subCmd.isFullCommand(subCommand) && !subCmd.canRunDefault(sender, subArgs))
-                        return false;
-            
-            // If none of the sub commands are set just return the disable sub setting
-            return this.hasPermission(sender) && (this.enableSub || !this.disableSub);
+    /**
+     * Gets the when expression of this command
+     * 
+     * @return the text of the expression, null if it always applies
+     */
+    public String getWhen(){
+        return this.when;
+    }
+
+    /**
+     * Checks if the given permissions have the permission for this command and every command above it
+     * 
+     * @param perms The permissions of the sender of this command
+     * @return if the player has permission for the whole command
+     */
+    public boolean hasPathPermission(PermissionSnapshot perms){
+        for(int permission : this.pathPermissions)
+            if(!perms.has(permission))
+                return false;
+        return true;
+    }
+
+    /**
+     * Gets the index the permission of this command was interned at
+     * 
+     * @return the index, -1 for no permission
+     */
+    int getPermissionIndex(){
+        return this.permissionIndex;
+    }
+
+    /**
+     * Checks if the given permissions skip the cooldown and max per minute of this command
+     * 
+     * @param perms The permissions of the sender of this command
+     * @return if the sender has the bypass permission
+     */
+    public boolean canBypassLimits(PermissionSnapshot perms){
+        return this.bypassIndex>=0 && perms.has(this.bypassIndex);
+    }
 
+    /**
+     * Interns the permissions of this command and every sub command, giving each distinct permission the next index
+     * 
+     * @param indices The index of each permission interned so far, new permissions are added to it
+     * @param parentPermissions The interned permissions of every command above this one
+     */
+    void internPermissions(Map<String, Integer> indices, int[] parentPermissions){
+        if(this.permission!=null)
+            this.permissionIndex = indices.computeIfAbsent(this.permission, k -> indices.size());
+        if(this.isLimited())
+            this.bypassIndex = indices.computeIfAbsent(this.bypassPermission, k -> indices.size());
+        if(this.condition!=null)
+            this.condition.internPermissions(indices);
+        this.pathPermissions = parentPermissions;
+        if(this.permissionIndex>=0 && Arrays.stream(parentPermissions).noneMatch(index -> index==this.permissionIndex)){
+            this.pathPermissions = Arrays.copyOf(parentPermissions, parentPermissions.length+1);
+            this.pathPermissions[parentPermissions.length] = this.permissionIndex;
         }
+        for(CommandData subCmd : this.subCommands)
+            subCmd.internPermissions(indices, this.pathPermissions);
+    }
+
+    /**
+     * Adds the permissions of this command and every sub command to the given set
+     * 
+     * @param permissions The set to add to
+     */
+    void collectPermissions(Set<String> permissions){
+        if(this.permission!=null)
+            permissions.add(this.permission);
+        if(this.isLimited())
+            permissions.add(this.bypassPermission);
+        if(this.condition!=null)
+            this.condition.collectPermissions(permissions);
+        for(CommandData subCmd : this.subCommands)
+            subCmd.collectPermissions(permissions);
+    }
 
+    /**
+     * Checks if this command disables its default version or the default version of its sub commands for the players it affects
+     * 
+     * @param terminal If it's the default version of this command instead of its sub commands
+     * @return If the default version is disabled
+     */
+    boolean disablesDefault(boolean terminal){
+        return (this.flags&(terminal ? BLOCKS : BLOCKS_SUB))!=0;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Reads the commands of every YAML file in a folder (like commands.d) to merge with the commands of the config
+ * 
+ * The parsed commands of each file are kept so files that haven't changed since the last load are never parsed again
+ */
+public class CommandFiles {
+
+    // Milliseconds after being written that a file's time can be trusted to change if it's written again
+    private static final long SETTLE_TIME = 2000;
+
+    // The folder holding the files
+    private final Path folder;
+
+    // The last load of each file by its path
+    private Map<Path, Source> sources = new HashMap<>();
+
+    /**
+     * Reads the files of the given folder
+     * 
+     * @param folder The folder holding the files (It doesn't have to exist)
+     */
+    public CommandFiles(Path folder){
+        this.folder = folder;
+    }
+
+    /**
+     * Gets the folder holding the files
+     * 
+     * @return The folder
+     */
+    public Path getFolder(){
+        return this.folder;
+    }
+
+    /**
+     * Reads the commands of every file in the folder and its sub folders, parsing only the files that changed in parallel
+     * 
+     * @return The commands section of each file by its path in the folder, sorted by path
+     * @throws IOException If the folder or a file couldn't be read
+     * @throws InvalidConfigurationException If a file isn't valid YAML or has no commands section
+     */
+    public synchronized Map<String, ConfigurationSection> load() throws IOException, InvalidConfigurationException{
+
+        List<Path> paths = this.list();
+
+        // Read the files whose time or size changed then parse the ones whose contents changed, each on its own thread
+        Source[] loaded = new Source[paths.size()];
+        Exception[] errors = new Exception[paths.size()];
+        IntStream.range(0, paths.size()).parallel().forEach(i -> {
+            try{
+                loaded[i] = this.read(paths.get(i), this.sources.get(paths.get(i)));
+            } catch (IOException | InvalidConfigurationException e) {
+                errors[i] = e;
+            }
+        });
+
+        // Report the first error in path order, keeping the files that did load for next time
+        Map<Path, Source> sources = new HashMap<>();
+        Map<String, ConfigurationSection> files = new LinkedHashMap<>();
+        Exception error = null;
+        for(int i=0;i<paths.size();i++){
+            if(errors[i]!=null){
+                if(error==null)
+                    error = errors[i];
+                continue;
+            }
+            sources.put(paths.get(i), loaded[i]);
+            files.put(this.getName(paths.get(i)), loaded[i].commands);
+        }
+        this.sources = sources;
+        if(error instanceof IOException)
+            throw (IOException) error;
+        if(error!=null)
+            throw (InvalidConfigurationException) error;
+        return files;
+
+    }
+
+    /**
+     * Finds every file in the folder and its sub folders
+     * 
+     * @return The files sorted by path so the commands are merged the same way each time (Empty if the folder doesn't exist)
+     * @throws IOException If the folder couldn't be read
+     */
+    List<Path> list() throws IOException{
+        if(!Files.isDirectory(this.folder))
+            return new ArrayList<>();
+        try(Stream<Path> walk = Files.walk(this.folder)){
+            return walk.filter(path -> {
+                String name = path.getFileName().toString();
+                return Files.isRegularFile(path) && (name.endsWith(".yml") || name.endsWith(".yaml"));
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Gets the commands of a file, reusing its last load if it hasn't changed
+     * 
+     * @param path The file to read
+     * @param last The last load of the file, null if it wasn't loaded before
+     * @return The load of the file
+     * @throws IOException If the file couldn't be read
+     * @throws InvalidConfigurationException If the file isn't valid YAML or has no commands section
+     */
+    private Source read(Path path, Source last) throws IOException, InvalidConfigurationException{
+
+        // Skip files with the same time and size without reading them, unless they were read so soon after being written that they could have been written again in the same instant
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        if(last!=null && last.modified==modified && last.size==size && last.settled)
+            return last;
+        boolean settled = System.currentTimeMillis()-modified>SETTLE_TIME;
+
+        // Skip files that were written again with the same contents without parsing them
+        byte[] bytes = Files.readAllBytes(path);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        long checksum = crc.getValue();
+        if(last!=null && last.checksum==checksum && last.size==bytes.length)
+            return new Source(modified, bytes.length, checksum, settled, last.commands);
+
+        // Parse the file
+        YamlConfiguration config = new YamlConfiguration();
+        try{
+            config.loadFromString(new String(bytes, StandardCharsets.UTF_8));
+        } catch (InvalidConfigurationException e) {
+            throw new InvalidConfigurationException("Could not parse "+this.getName(path)+": "+e.getMessage(), e);
+        }
+        if(!config.isConfigurationSection("commands"))
+            throw new InvalidConfigurationException(this.getName(path)+" is missing the commands section");
+        return new Source(modified, bytes.length, checksum, settled, config.getConfigurationSection("commands"));
+
+    }
+
+    /**
+     * Gets the name of a file to show in errors and reloads
+     * 
+     * @param path The file
+     * @return The path of the file starting from the folder, like commands.d/essentials.yml
+     */
+    String getName(Path path){
+        return this.folder.getFileName()+"/"+this.folder.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * The commands of a file when it was loaded
+     */
+    private static class Source {
+
+        private final long modified;
+        private final long size;
+        private final long checksum;
+        private final boolean settled;
+        private final ConfigurationSection commands;
+
+        private Source(long modified, long size, long checksum, boolean settled, ConfigurationSection commands){
+            this.modified = modified;
+            this.size = size;
+            this.checksum = checksum;
+            this.settled = settled;
+            this.commands = commands;
+        }
+
+    }
+
+}
@@ -1,17 +1,20 @@
 package com.cuddletheif.commandmanager;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.ServerCommandEvent;
 import org.bukkit.event.server.TabCompleteEvent;
 
@@ -20,32 +23,73 @@ import org.bukkit.event.server.TabCompleteEvent;
  */
 public class CommandListener implements Listener{
 
-    private CommandData[] commands;
+    // The current commands, always swapped as a whole so every event sees one consistent tree
+    private final AtomicReference<CommandTree> commands = new AtomicReference<>();
+
+    // The command names hidden from each player
+    private final VisibilityCache visibility = new VisibilityCache();
+
+    // The permissions of each player for checking them off the main thread
+    private final PermissionCache permissions = new PermissionCache();
+
+    // Runs the new commands of queued commands
+    private final DispatchQueue dispatchQueue;
+
+    // The cooldowns and max per minute of each player
+    private final RateLimiter rateLimiter = new RateLimiter();
+
+    // The time taken by each listener
+    private final ListenerMetrics metrics;
+
+    // The log of what was done with each command
+    private final AuditLog auditLog;
 
     /**
-     * Creates a command listener from the config given
-     * @param config Config holding the command data
+     * Creates a command listener from the commands given
+     * @param commands The compiled commands to start with
+     * @param dispatchQueue The queue for running new commands of queued commands
+     * @param metrics The metrics to record the time of each listener in
+     * @param auditLog The log to record what was done with each command in
      */
-    public CommandListener(FileConfiguration config){
-        reload(config);
+    public CommandListener(CommandTree commands, DispatchQueue dispatchQueue, ListenerMetrics metrics, AuditLog auditLog){
+        this.dispatchQueue = dispatchQueue;
+        this.metrics = metrics;
+        this.auditLog = auditLog;
+        reload(commands);
     }
     
     /**
-     * Loads the config into the stored commands
-     * @param config The config to load
+     * Publishes newly compiled commands in place of the stored ones (Must be called on the main thread)
+     * @param commands The fully built commands to use from now on
      */
-    public void reload(FileConfiguration config){
-
-        // Get the commands
-        ConfigurationSection cmdSection = config.getConfigurationSection("commands");
-        if(cmdSection!=null){
-            Set<String> cmdKeys = cmdSection.getKeys(false);
-            commands = new CommandData[cmdKeys.size()];
-            var i = 0;
-            for(String cmdKey : cmdKeys)
-                commands[i++] = new CommandData(cmdSection.getConfigurationSection(cmdKey), true);
-        }
+    public void reload(CommandTree commands){
+
+        // Swap in the new commands
+        CommandTree previous = this.commands.getAndSet(commands);
+        visibility.clear();
+        permissions.refreshAll(commands);
+
+        // Keep the cooldowns and limits of the commands still there so reloading doesn't reset them
+        Map<CommandData, CommandData> kept = commands.carryOver(previous);
+        dispatchQueue.carryOver(kept);
+        rateLimiter.carryOver(kept);
+
+    }
+
+    /**
+     * Gets the commands currently in use
+     * @return The current commands
+     */
+    public CommandTree getCommands(){
+        return this.commands.get();
+    }
 
+    /**
+     * Gets the cooldowns and max per minute of each player
+     * @return The rate limiter of the listener
+     */
+    public RateLimiter getRateLimiter(){
+        return this.rateLimiter;
     }
 
 
@@ -57,21 +101,40 @@ public class CommandListener implements Listener{
     @EventHandler (priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onPlayerCommandSend(PlayerCommandSendEvent e){
 
-        // Check each command
-        Collection<String> cmdNames = e.getCommands();
-        for(CommandData cmd : commands){
-            
-            if(cmd.isHidden(e.getPlayer())){
-                ArrayList<String> removes = new ArrayList<String>();
-                for(String cmdName : cmdNames)
-                    if(cmd.isFullCommand(cmdName))
-                        removes.add(cmdName);
-                for(String toRemove : removes)
-                    cmdNames.remove(toRemove);
-            }
+        // Commands are resent when permissions change so update the player's permissions first
+        long start = metrics.start();
+        CommandTree commands = this.commands.get();
+        PermissionSnapshot perms = permissions.refresh(e.getPlayer(), commands);
 
-        }
+        // Remove every name hidden from the player, including the namespaced versions
+        Set<String> hiddenNames = visibility.getHiddenNames(e.getPlayer().getUniqueId(), perms, commands);
+        if(!hiddenNames.isEmpty())
+            e.getCommands().removeIf(name -> hiddenNames.contains(CommandTree.normalizeLabel(name)));
+        metrics.record(ListenerMetrics.Kind.COMMAND_SEND, null, start);
+
+    }
 
+    /**
+     * When a player joins get their permissions ready for async checks
+     * 
+     * @param e the event triggered
+     */
+    @EventHandler (priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent e){
+        permissions.refresh(e.getPlayer(), commands.get());
+    }
+
+    /**
+     * When a player leaves forget their permissions and limits
+     * 
+     * @param e the event triggered
+     */
+    @EventHandler (priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent e){
+        permissions.invalidate(e.getPlayer().getUniqueId());
+        visibility.invalidate(e.getPlayer().getUniqueId());
+        dispatchQueue.forget(e.getPlayer().getUniqueId());
+        rateLimiter.forget(e.getPlayer().getUniqueId());
     }
 
      /**
@@ -82,21 +145,72 @@ public class CommandListener implements Listener{
     @EventHandler (priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onTabComplete(TabCompleteEvent e){
 
-        // Get the command and new buffer
-        String buffer = e.getBuffer();
-        String command = buffer.split(" ")[0].substring(1).trim();
-        if(command.length()+2<buffer.length())
-            buffer = buffer.substring(command.length()+2);
-        else
-            buffer = "";
+        // Get the commands of the buffer
+        long start = metrics.start();
+        CommandTree commands = this.commands.get();
+        CommandTokens tokens = tokenizeTab(e.getBuffer());
+        CommandData[] cmds = tokens.size()>0 ? commands.getCommands(tokens, 0) : CommandTree.NO_COMMANDS;
 
         // Get the tab lists if any 
-        for(CommandData cmd : commands)
-            if(cmd.isFullCommand(command))
-                cmd.getTabList(buffer, e.getSender(), e.getCompletions());
+        if(cmds.length>0){
+            PermissionSnapshot perms = permissions.get(e.getSender(), commands);
+            for(CommandData cmd : cmds)
+                cmd.getTabList(tokens, 1, perms, e.getCompletions());
+        }
+        CommandData matched = cmds.length>0 ? commands.getDeepestCommand(tokens) : null;
+        tokens.release();
+        metrics.record(ListenerMetrics.Kind.TAB_COMPLETE, matched, start);
 
     }
 
+    /**
+     * Gets the completions of a tab buffer from any thread if the commands decide every completion
+     * 
+     * @param sender The sender completing the buffer
+     * @param buffer The text typed so far
+     * @return The completions, null if they depend on the server's completions or the sender's permissions aren't known yet
+     */
+    public List<String> completeAsync(CommandSender sender, String buffer){
+
+        // Get the commands of the buffer and the sender's permissions
+        long start = metrics.start();
+        CommandTree commands = this.commands.get();
+        CommandTokens tokens = tokenizeTab(buffer);
+        CommandData[] cmds = tokens.size()>0 ? commands.getCommands(tokens, 0) : CommandTree.NO_COMMANDS;
+        PermissionSnapshot perms = cmds.length>0 ? permissions.get(sender, commands) : null;
+        List<String> completions = null;
+        if(perms!=null){
+
+            // One command throwing away the server's completions is enough to decide all of them
+            for(CommandData cmd : cmds){
+                if(cmd.isTabListDecided(tokens, 1, perms)){
+                    completions = new ArrayList<>();
+                    break;
+                }
+            }
+            if(completions!=null)
+                for(CommandData cmd : cmds)
+                    cmd.getTabList(tokens, 1, perms, completions);
+
+        }
+        CommandData matched = completions!=null ? commands.getDeepestCommand(tokens) : null;
+        tokens.release();
+        if(completions!=null)
+            metrics.record(ListenerMetrics.Kind.ASYNC_TAB_COMPLETE, matched, start);
+        return completions;
+
+    }
+
+    /**
+     * Splits a tab buffer into its tokens, call {@link CommandTokens#release()} when done with them
+     * 
+     * @param buffer The text typed so far
+     * @return The tokens of the buffer after the slash
+     */
+    private static CommandTokens tokenizeTab(String buffer){
+        return CommandTokens.acquire().tokenize(buffer, buffer.startsWith("/") ? 1 : 0);
+    }
+
     /**
      * Before a player command gets processed check if it's disabled or needs to be redirected
      * 
@@ -105,7 +219,7 @@ public class CommandListener implements Listener{
     @EventHandler(priority = EventPriority.LOWEST)
     public void onPreprocessComand(PlayerCommandPreprocessEvent e){
         
-        if(this.processCommand((CommandSender)e.getPlayer(), e.getMessage().substring(1)))
+        if(this.processCommand((CommandSender)e.getPlayer(), e.getMessage(), 1, ListenerMetrics.Kind.PLAYER_COMMAND))
             e.setCancelled(true);
 
     }
@@ -118,7 +232,7 @@ public class CommandListener implements Listener{
     @EventHandler(priority = EventPriority.LOWEST)
     public void onPreprocessComand(ServerCommandEvent e){
         
-        if(this.processCommand(e.getSender(), e.getCommand()))
+        if(this.processCommand(e.getSender(), e.getCommand(), 0, ListenerMetrics.Kind.SERVER_COMMAND))
             e.setCancelled(true);
 
     }
@@ -126,31 +240,55 @@ public class CommandListener implements Listener{
     /**
      * Handles the processing of an event, disabling and calling new commands if any
      * 
-     * @param boolean if the command is disabled
+     * @param sender The sender of the command
+     * @param message The text of the command
+     * @param from The index the command starts at, after any slash
+     * @param kind The listener handling the command for its metrics
+     * @return if the command is disabled
      */
-    private boolean processCommand(CommandSender sender, String fullCommand){
-
-        // Check to see if the command is handled speficially 
-        CommandData cmdData = null;
-        for(CommandData cmd : commands){
-            cmdData = cmd.getCommandData(sender, fullCommand);
-            if(cmdData!=null)
-                break;
-        }
+    private boolean processCommand(CommandSender sender, String message, int from, ListenerMetrics.Kind kind){
 
-        // Try to run the new commands if any
-        if(cmdData!=null)
-            cmdData.runNewCommands(sender);
+        // Split the command once for every lookup against the same commands
+        long start = metrics.start();
+        CommandTree commands = this.commands.get();
+        CommandTokens tokens = CommandTokens.acquire().tokenize(message, from);
+        PermissionSnapshot perms = permissions.get(sender, commands);
+        try{
 
-        // Return if the default is disabled
-        String command = fullCommand.split(" ")[0];
-        String args = fullCommand.substring(command.length()).trim();
-        for(CommandData cmd : commands)
-            if(cmd.isFullCommand(command) && !cmd.canRunDefault(sender, args))
-                return true;
+            // Stop players using limited commands too quickly before anything else runs
+            if(sender instanceof Player){
+                long wait = rateLimiter.acquire((Player) sender, perms, commands, tokens);
+                if(wait>0){
+                    String limited = rateLimiter.getMessage(wait);
+                    if(!limited.isEmpty())
+                        sender.sendMessage(limited);
+                    CommandData limitedCmd = commands.getCommandData(sender, perms, tokens);
+                    metrics.record(kind, limitedCmd, start);
+                    auditLog.record(sender, message, limitedCmd, AuditLog.Outcome.LIMITED, null);
+                    return true;
+                }
+            }
+
+            // Decide what to do with the command, the listener's time stops here since the new commands can take any time
+            CommandData cmdData = commands.getCommandData(sender, perms, tokens);
+            boolean blocked = !commands.canRunDefault(sender, perms, tokens);
+            metrics.record(kind, cmdData, start);
+
+            // Try to run the new commands if any, timed on their own and kept for the audit log if it's on
+            List<String> dispatched = auditLog.isEnabled() ? new ArrayList<>() : null;
+            if(cmdData!=null && cmdData.hasNewCommands()){
+                long dispatchStart = metrics.start();
+                cmdData.runNewCommands(sender, perms, tokens, dispatchQueue, dispatched);
+                metrics.record(ListenerMetrics.Kind.NEW_COMMANDS, cmdData, dispatchStart);
+            }
+
+            // Return if the default is disabled
+            auditLog.record(sender, message, cmdData, blocked ? AuditLog.Outcome.BLOCKED : AuditLog.Outcome.ALLOWED, dispatched);
+            return blocked;
 
-        // If the command isn't handled just return false
-        return false;
+        } finally {
+            tokens.release();
+        }
 
     }
 
@@ -1,12 +1,22 @@
 package com.cuddletheif.commandmanager;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
 
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 
 public class CommandManager extends JavaPlugin
@@ -14,15 +24,121 @@ public class CommandManager extends JavaPlugin
 
     CommandListener commandListener;
 
+    // Registers the redirected commands
+    private CommandRegistrar registrar;
+
+    // Reads the commands of the files in commands.d
+    private CommandFiles commandFiles;
+
+    // Runs the new commands of queued commands
+    private DispatchQueue dispatchQueue;
+
+    // The time taken by each listener
+    private final ListenerMetrics metrics = new ListenerMetrics();
+
+    // Writes the stats to a file every so often, null if not enabled
+    private BukkitTask statsDump;
+
+    // The log of what was done with each command
+    private AuditLog auditLog;
+
+    // Reloads the config when it changes, null if not enabled
+    private ConfigWatcher configWatcher;
+
+    // The debounce of the config watcher, -1 if not enabled
+    private long watchDebounce = -1;
+
+    // The number of the latest reload so an older slower reload never replaces a newer one
+    private int reloads;
+
+    // Shares the commands with the other servers of the network, null if not enabled
+    private RuleDistributor network;
+
+    // The network settings in use so sharing is only restarted when they change
+    private String networkSettings = "";
+
     @Override
     public void onEnable() {
         // Load the config
         this.saveDefaultConfig();
-        FileConfiguration config = this.getConfig();
+        commandFiles = new CommandFiles(new File(this.getDataFolder(), "commands.d").toPath());
+
+        // Read the compiled commands from the snapshot if the config files haven't changed since it was taken
+        ConfigurationSection config = null;
+        CommandTree commands = null;
+        boolean loaded = true;
+        long key = 0;
+        try{
+            key = this.getSnapshotKey();
+            TreeSnapshot snapshot = TreeSnapshot.read(this.getSnapshotFile(), key);
+            if(snapshot!=null){
+                config = snapshot.getSettings();
+                commands = snapshot.getCommands();
+            }
+        } catch (IOException | InvalidConfigurationException e) {
+            this.getLogger().log(Level.WARNING, "Could not read the snapshot of the commands, compiling the config instead: "+e.getMessage());
+            commands = null;
+        }
+
+        // Otherwise compile the commands now so they apply before anyone joins
+        if(commands==null){
+            config = this.getConfig();
+            try{
+                CommandTree compiled = CommandTree.load(config, commandFiles.load(), null);
+                ConfigurationSection settings = config;
+                long compiledKey = key;
+                this.getServer().getScheduler().runTaskAsynchronously(this, () -> this.saveSnapshot(compiled, settings, compiledKey));
+                commands = compiled;
+            } catch (IOException | InvalidConfigurationException e) {
+                this.getLogger().log(Level.SEVERE, "Could not load the commands, no commands will be managed: "+e.getMessage());
+                commands = new CommandTree();
+                loaded = false;
+            }
+        }
+
+        // Servers receiving the commands of the network start with the last ones they were sent
+        CommandTree received = this.configureNetwork(config.getConfigurationSection("network"));
+        if(received!=null)
+            commands = received;
 
         // Ready the command listener
-        commandListener = new CommandListener(config);
+        dispatchQueue = new DispatchQueue(this);
+        dispatchQueue.configure(config.getConfigurationSection("dispatch-queue"));
+        this.configureMetrics(config.getConfigurationSection("metrics"));
+        this.configureWatcher(config.getConfigurationSection("auto-reload"));
+        auditLog = new AuditLog(new File(this.getDataFolder(), "audit.log").toPath(), this.getLogger());
+        auditLog.configure(config.getConfigurationSection("audit-log"));
+        commandListener = new CommandListener(commands, dispatchQueue, metrics, auditLog);
+        commandListener.getRateLimiter().configure(config.getConfigurationSection("limits"));
         this.getServer().getPluginManager().registerEvents(commandListener, this);
+        if(AsyncTabCompleter.register(this, commandListener))
+            this.getLogger().info("Completing tab buffers off the main thread where possible");
+        registrar = new CommandRegistrar(this);
+        registrar.register(commands);
+
+        // Check the namespaced labels again once every plugin has registered its commands
+        this.getServer().getScheduler().runTask(this, CommandRegistrar::refreshLabels);
+
+        // Send the commands to the rest of the network if this server publishes them, never the empty commands of a config that failed to load
+        if(network!=null && loaded)
+            network.publish(commands);
+        else if(network!=null && network.getRole()==RuleDistributor.Role.PUBLISH)
+            this.getLogger().warning("Not sending the commands to the network until the config loads, the other servers keep their current commands");
+    }
+
+    @Override
+    public void onDisable() {
+        // Stop watching the config and sharing the commands
+        this.configureWatcher(null);
+        this.configureNetwork(null);
+
+        // Write the rest of the audit log
+        if(auditLog!=null)
+            auditLog.close();
+
+        // Remove the redirected commands
+        if(registrar!=null)
+            registrar.unregister();
     }
 
     @Override
@@ -31,26 +147,306 @@ public class CommandManager extends JavaPlugin
         // Check if reload command
         if(args.length==1 && args[0].trim().equals("reload")){
             
-            // Reload the config file from disk
-            this.reloadConfig();
+            // Reload the config file from disk off the main thread
             this.saveDefaultConfig();
-            FileConfiguration config = this.getConfig();
-
-            // Update the command listener
-            commandListener.reload(config);
+            this.reloadCommands(sender);
+            return true;
+        }
 
-            // Let user know reloaded config file and return success
-            sender.sendMessage("Reloaded Config file");
+        // Check if stats command
+        if(args.length>=1 && args[0].trim().equals("stats")){
+            if(args.length==2 && args[1].trim().equals("reset")){
+                metrics.reset();
+                sender.sendMessage("Reset the stats");
+            }
+            else
+                sender.sendMessage(metrics.report().toArray(new String[0]));
             return true;
         }
         return false;
     }
 
+    /**
+     * Turns the metrics on or off and starts writing them to a file every so often if set
+     * 
+     * @param section The metrics section of the config (May be null for the defaults)
+     */
+    private void configureMetrics(ConfigurationSection section){
+
+        metrics.setEnabled(section==null || section.getBoolean("enabled", true));
+
+        // Restart the dump with the new interval
+        if(statsDump!=null){
+            statsDump.cancel();
+            statsDump = null;
+        }
+        long minutes = section!=null ? section.getLong("dump-interval", 0) : 0;
+        if(minutes>0){
+            File file = new File(this.getDataFolder(), "stats.txt");
+            statsDump = this.getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+                List<String> lines = new ArrayList<>();
+                lines.add("# "+LocalDateTime.now());
+                lines.addAll(metrics.report());
+                try{
+                    Files.write(file.toPath(), lines);
+                } catch (IOException e) {
+                    this.getLogger().log(Level.WARNING, "Could not write the stats to "+file, e);
+                }
+            }, minutes*1200, minutes*1200);
+        }
+
+    }
+
+    /**
+     * Starts or stops watching the config file and commands.d for changes to reload automatically
+     * 
+     * @param section The auto-reload section of the config (May be null to stop watching)
+     */
+    private void configureWatcher(ConfigurationSection section){
+
+        // Keep the current watcher if the settings are the same
+        long debounce = section!=null && section.getBoolean("enabled", false) ? Math.max(0, section.getLong("debounce", 1000)) : -1;
+        if(debounce==watchDebounce)
+            return;
+        if(configWatcher!=null){
+            configWatcher.close();
+            configWatcher = null;
+        }
+        watchDebounce = debounce;
+        if(debounce<0)
+            return;
+
+        // Reload through the same path as the reload command, telling the console
+        File file = new File(this.getDataFolder(), "config.yml");
+        try{
+            configWatcher = new ConfigWatcher(file.toPath(), commandFiles.getFolder(), debounce, () -> this.getServer().getScheduler().runTask(this, () -> {
+                if(this.isEnabled())
+                    this.reloadCommands(this.getServer().getConsoleSender());
+            }), this.getLogger());
+        } catch (IOException e) {
+            this.getLogger().log(Level.WARNING, "Could not watch "+file+" for changes, use /cmdManager reload instead", e);
+            watchDebounce = -1;
+        }
+
+    }
+
+    /**
+     * Parses the config file and command files and compiles their commands asynchronously then publishes them on the main thread
+     * If anything in the config is invalid the current commands are kept
+     * 
+     * @param sender The sender to tell once the reload is done
+     */
+    private void reloadCommands(CommandSender sender){
+
+        File file = new File(this.getDataFolder(), "config.yml");
+        int reload = ++this.reloads;
+        long start = System.nanoTime();
+        CommandTree previous = commandListener.getCommands();
+        this.getServer().getScheduler().runTaskAsynchronously(this, () -> {
+
+            // Parse the config and the command files that changed then compile the new commands, reusing the ones that didn't change
+            // (Servers receiving the commands of the network only reload the other settings)
+            YamlConfiguration config = new YamlConfiguration();
+            CommandTree commands;
+            long key;
+            try{
+                key = this.getSnapshotKey();
+                config.load(file);
+                commands = RuleDistributor.getRole(config.getConfigurationSection("network"))!=RuleDistributor.Role.RECEIVE ? CommandTree.load(config, commandFiles.load(), previous) : null;
+            } catch (IOException | InvalidConfigurationException e) {
+                String message = "Could not reload the config file, keeping the current commands: "+e.getMessage();
+                this.getServer().getScheduler().runTask(this, () -> sender.sendMessage(message));
+                return;
+            }
+            CommandTree.Diff diff = commands!=null ? commands.diff(previous) : null;
+            if(commands!=null)
+                this.saveSnapshot(commands, config, key);
+
+            // Swap them in on the main thread unless a newer reload was started
+            this.getServer().getScheduler().runTask(this, () -> {
+                if(reload!=this.reloads)
+                    return;
+                long mainStart = System.nanoTime();
+                dispatchQueue.configure(config.getConfigurationSection("dispatch-queue"));
+                commandListener.getRateLimiter().configure(config.getConfigurationSection("limits"));
+                this.configureMetrics(config.getConfigurationSection("metrics"));
+                this.configureWatcher(config.getConfigurationSection("auto-reload"));
+                auditLog.configure(config.getConfigurationSection("audit-log"));
+                CommandTree received = this.configureNetwork(config.getConfigurationSection("network"));
+                if(commands==null){
+                    if(received!=null)
+                        this.applyNetworkCommands(received, network.getVersion());
+                    sender.sendMessage("Reloaded the settings of the config file, the commands come from the network");
+                    return;
+                }
+                int registered = this.swapCommands(commands, diff);
+                if(network!=null)
+                    network.publish(commands);
+                long end = System.nanoTime();
+                sender.sendMessage(reloadReport(diff, registered, end-start, end-mainStart).toArray(new String[0]));
+            });
+
+        });
+
+    }
+
+    /**
+     * Publishes compiled commands to the listener and the registered commands, resending the commands of players if they changed (Must be called on the main thread)
+     * 
+     * @param commands The fully built commands to use from now on
+     * @param diff The top commands changed since the current commands
+     * @return The number of registrations changed
+     */
+    private int swapCommands(CommandTree commands, CommandTree.Diff diff){
+        commandListener.reload(commands);
+        int registered = registrar.register(commands);
+        if(registered>0 || !diff.isEmpty())
+            registrar.resendCommands(registered>0);
+        return registered;
+    }
+
+    /**
+     * Starts or stops sharing the commands with the other servers of the network
+     * 
+     * @param section The network section of the config (May be null to stop sharing)
+     * @return The commands last received from the network if this server just started receiving them, otherwise null
+     */
+    private CommandTree configureNetwork(ConfigurationSection section){
+
+        // Keep sharing the same way if the settings are the same
+        RuleDistributor.Role role = RuleDistributor.getRole(section);
+        String transport = role!=RuleDistributor.Role.OFF ? section.getString("transport", "plugin-message") : "";
+        String folder = role!=RuleDistributor.Role.OFF ? section.getString("folder", "network-rules") : "";
+        long republish = role!=RuleDistributor.Role.OFF ? Math.max(0, section.getLong("republish-interval", 300)) : 0;
+        String secret = role!=RuleDistributor.Role.OFF ? section.getString("secret", "") : "";
+        String settings = role==RuleDistributor.Role.OFF ? "" : role+"|"+transport+"|"+folder+"|"+republish+"|"+secret;
+        if(settings.equals(networkSettings))
+            return null;
+        if(network!=null){
+            network.close();
+            network = null;
+        }
+        networkSettings = settings;
+        if(role==RuleDistributor.Role.OFF)
+            return null;
+
+        // Never share commands without a secret, anyone able to send a plugin message could otherwise run console commands on every receiver
+        if(secret.isEmpty()){
+            this.getLogger().severe("The network section of the config has no secret, set the same secret on every server to share the commands (The network is off until then)");
+            networkSettings = "";
+            return null;
+        }
+
+        // Send them through a shared folder or the proxy, applying received commands on the main thread like a reload
+        RuleTransport rules = transport.equalsIgnoreCase("file") ? new FileRuleTransport(new File(this.getDataFolder(), folder).toPath(), this.getLogger()) : new PluginMessageTransport(this);
+        RuleDistributor distributor = new RuleDistributor(role, rules, secret, new File(this.getDataFolder(), "network-rules.bin").toPath(), this.getLogger(),
+            (commands, version) -> this.getServer().getScheduler().runTask(this, () -> this.applyNetworkCommands(commands, version)));
+        CommandTree received = role==RuleDistributor.Role.RECEIVE ? distributor.readCache() : null;
+        try{
+            distributor.start(republish);
+        } catch (IOException e) {
+            this.getLogger().log(Level.WARNING, "Could not start receiving the commands of the network, using the config's commands", e);
+            distributor.close();
+            networkSettings = "";
+            return null;
+        }
+        network = distributor;
+        return received;
+
+    }
+
+    /**
+     * Publishes commands received from the network in place of the current ones through the same path as a reload (Must be called on the main thread)
+     * 
+     * @param commands The received commands
+     * @param version The version of the commands
+     */
+    private void applyNetworkCommands(CommandTree commands, long version){
+
+        // Skip commands of a distributor that was stopped or a version that was already replaced
+        if(network==null || network.getRole()!=RuleDistributor.Role.RECEIVE || network.getVersion()!=version)
+            return;
+        long start = System.nanoTime();
+        CommandTree.Diff diff = commands.diff(commandListener.getCommands());
+        int registered = this.swapCommands(commands, diff);
+        long nanos = System.nanoTime()-start;
+        List<String> lines = reloadReport(diff, registered, nanos, nanos);
+        lines.set(0, "Applied version "+version+" of the network's commands in "+String.format(Locale.ROOT, "%.1f", nanos/1_000_000.0)+"ms");
+        for(String line : lines)
+            this.getLogger().info(line);
+
+    }
+
+    /**
+     * Gets the file holding the snapshot of the compiled commands
+     * 
+     * @return The snapshot file in the plugin folder
+     */
+    private Path getSnapshotFile(){
+        return new File(this.getDataFolder(), "commands.bin").toPath();
+    }
+
+    /**
+     * Hashes the config files to check if the snapshot was taken of them
+     * 
+     * @return The key of the current config files
+     * @throws IOException If a config file couldn't be read
+     */
+    private long getSnapshotKey() throws IOException{
+        return TreeSnapshot.key(new File(this.getDataFolder(), "config.yml").toPath(), commandFiles, this.getDescription().getVersion());
+    }
+
+    /**
+     * Saves a snapshot of compiled commands so the next start doesn't have to compile them
+     * 
+     * @param commands The compiled commands
+     * @param config The config the commands were compiled with
+     * @param key The key of the config files from before they were read
+     */
+    private void saveSnapshot(CommandTree commands, ConfigurationSection config, long key){
+        try{
+
+            // Only save it if the files didn't change while the commands were compiled
+            if(this.getSnapshotKey()!=key)
+                return;
+            new TreeSnapshot(commands, config).write(this.getSnapshotFile(), key);
+
+        } catch (IOException e) {
+            this.getLogger().log(Level.WARNING, "Could not save the snapshot of the commands", e);
+        }
+    }
+
+    /**
+     * Describes what a reload changed
+     * 
+     * @param diff The top commands changed by the reload
+     * @param registered The number of registrations changed
+     * @param nanos The time the whole reload took
+     * @param mainNanos The time the reload took on the main thread
+     * @return The lines to send
+     */
+    private static List<String> reloadReport(CommandTree.Diff diff, int registered, long nanos, long mainNanos){
+        List<String> lines = new ArrayList<>();
+        lines.add("Reloaded Config file in "+String.format(Locale.ROOT, "%.1f", nanos/1_000_000.0)+"ms ("+String.format(Locale.ROOT, "%.1f", mainNanos/1_000_000.0)+"ms on the main thread)");
+        lines.add(diff.getAdded().size()+" added, "+diff.getRemoved().size()+" removed, "+diff.getChanged().size()+" changed, "+diff.getUnchanged()+" unchanged, "+registered+" registrations updated");
+        if(!diff.getAdded().isEmpty())
+            lines.add("Added: "+String.join(", ", diff.getAdded()));
+        if(!diff.getRemoved().isEmpty())
+            lines.add("Removed: "+String.join(", ", diff.getRemoved()));
+        if(!diff.getChanged().isEmpty())
+            lines.add("Changed: "+String.join(", ", diff.getChanged()));
+        return lines;
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args){
         List<String> commands = new ArrayList<String>();
         if(args.length<1 || (args.length==1 && "reload".startsWith(args[0].trim())))
             commands.add("reload");
+        if(args.length<1 || (args.length==1 && "stats".startsWith(args[0].trim())))
+            commands.add("stats");
+        if(args.length==2 && args[0].trim().equals("stats") && "reset".startsWith(args[1].trim()))
+            commands.add("reset");
         return commands;
     }
 
@@ -0,0 +1,331 @@
+package com.cuddletheif.commandmanager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandMap;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Registers the redirected commands to bukkit so they show in the tab list and /help
+ * 
+ * Everything here must be called on the main thread
+ */
+public class CommandRegistrar {
+
+    // Gets the command map from the server, null if the server has no getCommandMap
+    private static final MethodHandle GET_COMMAND_MAP;
+
+    // Resends every command to brigadier, null if the server has no syncCommands
+    private static final MethodHandle SYNC_COMMANDS;
+
+    // The known commands of a simple command map, null if it can't be accessed
+    private static final VarHandle KNOWN_COMMANDS;
+
+    // The lower cased namespaced labels of the server that run another command than their label without the namespace, read from any thread
+    private static volatile Set<String> distinctLabels = Collections.emptySet();
+
+    static {
+        Class<? extends Server> serverClass = Bukkit.getServer()!=null ? Bukkit.getServer().getClass() : null;
+        GET_COMMAND_MAP = findServerMethod(serverClass, "getCommandMap", MethodType.methodType(CommandMap.class, Server.class));
+        SYNC_COMMANDS = findServerMethod(serverClass, "syncCommands", MethodType.methodType(void.class, Server.class));
+        VarHandle knownCommands;
+        try{
+            knownCommands = MethodHandles.privateLookupIn(SimpleCommandMap.class, MethodHandles.lookup()).findVarHandle(SimpleCommandMap.class, "knownCommands", Map.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            knownCommands = null;
+        }
+        KNOWN_COMMANDS = knownCommands;
+    }
+
+    // The plugin registering the commands
+    private final Plugin plugin;
+
+    // The registration of each redirected command by its lower cased name
+    private final Map<String, Registration> registrations = new HashMap<>();
+
+    /**
+     * Creates a registrar for the given plugin
+     * 
+     * @param plugin The plugin registering the commands
+     */
+    public CommandRegistrar(Plugin plugin){
+        this.plugin = plugin;
+    }
+
+    /**
+     * Updates the registered commands to the redirected commands of the given tree, only touching the ones whose registration changed
+     * 
+     * @param commands The commands to register
+     * @return The number of commands registered, unregistered or registered again
+     */
+    public int register(CommandTree commands){
+
+        // Find every redirected command wanted now
+        Map<String, CommandData> wanted = new LinkedHashMap<>();
+        for(CommandData cmd : commands.getCommands())
+            if(cmd.isRedirect())
+                wanted.putIfAbsent(cmd.getName().toLowerCase(Locale.ROOT), cmd);
+
+        // Undo the registrations that are gone or changed
+        int changes = 0;
+        CommandMap commandMap = getCommandMap();
+        Iterator<Map.Entry<String, Registration>> registered = this.registrations.entrySet().iterator();
+        while(registered.hasNext()){
+            Map.Entry<String, Registration> entry = registered.next();
+            CommandData cmd = wanted.get(entry.getKey());
+            if(cmd==null || !entry.getValue().isFor(cmd)){
+                entry.getValue().undo(commandMap);
+                registered.remove();
+                changes++;
+            }
+        }
+
+        // Override existing plugin commands and collect the new ones to add together
+        List<Command> toAdd = new ArrayList<>();
+        for(Map.Entry<String, CommandData> entry : wanted.entrySet()){
+
+            if(this.registrations.containsKey(entry.getKey()))
+                continue;
+            CommandData cmd = entry.getValue();
+            List<String> aliases = Arrays.asList(cmd.getNames()).subList(1, cmd.getNames().length);
+            changes++;
+
+            // Check if the command already exists and if it does just override it
+            PluginCommand command = Bukkit.getPluginCommand(cmd.getName());
+            if(command!=null){
+                this.registrations.put(entry.getKey(), new Registration(cmd, new OverriddenCommand(command), null));
+                if(cmd.getDescription()!=null)
+                    command.setDescription(cmd.getDescription());
+                if(cmd.getPermission()!=null)
+                    command.setPermission(cmd.getPermission());
+                command.setAliases(new ArrayList<>(aliases));
+                command.setExecutor(new CustomExecutor());
+            }
+            // If the command does not exist add it with the others
+            else{
+                CustomCommand customCommand = new CustomCommand(cmd.getName(), cmd.getDescription(), cmd.getPermission(), new ArrayList<>(aliases));
+                this.registrations.put(entry.getKey(), new Registration(cmd, null, customCommand));
+                toAdd.add(customCommand);
+            }
+
+        }
+
+        // Add all the new commands at once
+        if(!toAdd.isEmpty()){
+            if(commandMap!=null)
+                commandMap.registerAll(this.plugin.getName().toLowerCase(Locale.ROOT), toAdd);
+            else
+                this.plugin.getLogger().warning("Could not find the server's command map, "+toAdd.size()+" redirected commands were not registered");
+        }
+        refreshLabels();
+        return changes;
+
+    }
+
+    /**
+     * Caches which namespaced labels of the server run another command than their label without the namespace, so labels can be normalized on any thread (Must be called on the main thread)
+     */
+    public static void refreshLabels(){
+        Map<String, Command> knownCommands = getKnownCommands(getCommandMap());
+        if(knownCommands==null)
+            return;
+        Set<String> distinct = new HashSet<>();
+        for(Map.Entry<String, Command> entry : knownCommands.entrySet()){
+            int colon = entry.getKey().indexOf(':');
+            if(colon==-1)
+                continue;
+            Command plain = knownCommands.get(entry.getKey().substring(colon+1));
+            if(plain!=null && plain!=entry.getValue())
+                distinct.add(entry.getKey().toLowerCase(Locale.ROOT));
+        }
+        distinctLabels = distinct;
+    }
+
+    /**
+     * Checks if a namespaced label runs another command than its label without the namespace, as of the last {@link #refreshLabels()}
+     * 
+     * @param label The label with its namespace
+     * @return If the label is known and runs another command, false if it isn't known
+     */
+    static boolean isDistinctLabel(CharSequence label){
+        Set<String> distinct = distinctLabels;
+        return !distinct.isEmpty() && distinct.contains(label.toString().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Removes every command added and restores every command overridden
+     */
+    public void unregister(){
+        CommandMap commandMap = getCommandMap();
+        for(Registration registration : this.registrations.values())
+            registration.undo(commandMap);
+        this.registrations.clear();
+    }
+
+    /**
+     * Resends the command tree to every online player so changes show up right away
+     * 
+     * @param registered If registered commands changed so the server's command tree has to be rebuilt first
+     */
+    public void resendCommands(boolean registered){
+
+        // Rebuild the server's command tree once
+        if(registered && SYNC_COMMANDS!=null){
+            try{
+                SYNC_COMMANDS.invokeExact(Bukkit.getServer());
+            } catch (Throwable e) {
+                this.plugin.getLogger().log(Level.WARNING, "Could not sync the server's commands", e);
+            }
+        }
+
+        // Send it to each player
+        for(Player player : Bukkit.getOnlinePlayers())
+            player.updateCommands();
+
+    }
+
+    /**
+     * Gets the command map of the server
+     * 
+     * @return the command map, null if it can't be accessed
+     */
+    private static CommandMap getCommandMap(){
+        if(GET_COMMAND_MAP==null)
+            return null;
+        try{
+            return (CommandMap) GET_COMMAND_MAP.invokeExact(Bukkit.getServer());
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the map of every label to its command in the given command map
+     * 
+     * @param commandMap The command map to get the labels of
+     * @return the known commands, null if they can't be accessed
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Command> getKnownCommands(CommandMap commandMap){
+        if(KNOWN_COMMANDS==null || !(commandMap instanceof SimpleCommandMap))
+            return null;
+        return (Map<String, Command>) KNOWN_COMMANDS.get((SimpleCommandMap) commandMap);
+    }
+
+    /**
+     * Finds a public no argument method of the server
+     * 
+     * @param serverClass The class of the running server (May be null if there is none)
+     * @param name The name of the method
+     * @param type The type to adapt the method to
+     * @return The method adapted to the type, null if not found
+     */
+    private static MethodHandle findServerMethod(Class<? extends Server> serverClass, String name, MethodType type){
+        if(serverClass==null)
+            return null;
+        try{
+            return MethodHandles.publicLookup().unreflect(serverClass.getMethod(name)).asType(type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The names, description and permission a redirected command was registered with and how to undo it
+     */
+    private static class Registration {
+
+        private final String[] names;
+        private final String description;
+        private final String permission;
+        private final OverriddenCommand overridden;
+        private final CustomCommand added;
+
+        private Registration(CommandData cmd, OverriddenCommand overridden, CustomCommand added){
+            this.names = cmd.getNames().clone();
+            this.description = cmd.getDescription();
+            this.permission = cmd.getPermission();
+            this.overridden = overridden;
+            this.added = added;
+        }
+
+        /**
+         * Checks if the command would be registered the same way
+         * 
+         * @param cmd The redirected command
+         * @return If the names, description and permission are the same
+         */
+        private boolean isFor(CommandData cmd){
+            return Arrays.equals(this.names, cmd.getNames()) && Objects.equals(this.description, cmd.getDescription()) && Objects.equals(this.permission, cmd.getPermission());
+        }
+
+        /**
+         * Restores the overridden command or removes the added command and every label it was known by
+         * 
+         * @param commandMap The command map of the server, null if it can't be accessed
+         */
+        private void undo(CommandMap commandMap){
+            if(this.overridden!=null)
+                this.overridden.restore();
+            else if(commandMap!=null){
+                Map<String, Command> knownCommands = getKnownCommands(commandMap);
+                if(knownCommands!=null)
+                    knownCommands.values().removeIf(known -> known==this.added);
+                this.added.unregister(commandMap);
+            }
+        }
+
+    }
+
+    /**
+     * How a plugin command was before it was overridden
+     */
+    private static class OverriddenCommand {
+
+        private final PluginCommand command;
+        private final String description;
+        private final String permission;
+        private final List<String> aliases;
+        private final CommandExecutor executor;
+
+        private OverriddenCommand(PluginCommand command){
+            this.command = command;
+            this.description = command.getDescription();
+            this.permission = command.getPermission();
+            this.aliases = new ArrayList<>(command.getAliases());
+            this.executor = command.getExecutor();
+        }
+
+        private void restore(){
+            this.command.setDescription(this.description);
+            this.command.setPermission(this.permission);
+            this.command.setAliases(this.aliases);
+            this.command.setExecutor(this.executor);
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+
+/**
+ * A new command parsed once into literal text and placeholders so it can be filled in without any regex
+ * 
+ * Supports %player% (or %sender%), %uuid%, %world%, %x%, %y%, %z% and %arg1% to %argN% for the arguments of the command run
+ */
+public class CommandTemplate {
+
+    // Placeholder kinds, arguments are stored as their number
+    private static final int PLAYER = -1;
+    private static final int UUID = -2;
+    private static final int WORLD = -3;
+    private static final int X = -4;
+    private static final int Y = -5;
+    private static final int Z = -6;
+
+    // The new command as written in the config
+    private final String command;
+
+    // The literal text between placeholders, literals[i] comes right before placeholders[i]
+    private final String[] literals;
+
+    // The placeholder after each literal (One less than the literals)
+    private final int[] placeholders;
+
+    // Rough length of a filled in command for sizing the builder
+    private final int length;
+
+    /**
+     * Parses the given new command
+     * 
+     * @param command The new command with placeholders
+     */
+    public CommandTemplate(String command){
+
+        this.command = command;
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> placeholders = new ArrayList<>();
+
+        // Find each placeholder between two percent signs
+        int literalStart = 0;
+        int start = command.indexOf('%');
+        while(start!=-1){
+            int end = command.indexOf('%', start+1);
+            if(end==-1)
+                break;
+            int placeholder = placeholder(command.substring(start+1, end));
+            if(placeholder==0){
+                // Not a placeholder so the closing sign may start the next one
+                start = end;
+                continue;
+            }
+            literals.add(command.substring(literalStart, start));
+            placeholders.add(placeholder);
+            literalStart = end+1;
+            start = command.indexOf('%', literalStart);
+        }
+        literals.add(command.substring(literalStart));
+
+        this.literals = literals.toArray(new String[0]);
+        this.placeholders = new int[placeholders.size()];
+        for(int i=0;i<this.placeholders.length;i++)
+            this.placeholders[i] = placeholders.get(i);
+        this.length = command.length()+16*this.placeholders.length;
+
+    }
+
+    /**
+     * Gets the new command as written in the config
+     * 
+     * @return the new command with its placeholders
+     */
+    public String getCommand(){
+        return this.command;
+    }
+
+    /**
+     * Fills in the placeholders for the given sender and command
+     * 
+     * @param sender The sender who ran the command
+     * @param tokens The tokens of the command run for the argument placeholders
+     * @return The command to run
+     */
+    public String render(CommandSender sender, CommandTokens tokens){
+
+        // Nothing to fill in so use the text as is
+        if(this.placeholders.length==0)
+            return this.literals[0];
+
+        // Append each literal and the value of its placeholder
+        StringBuilder builder = new StringBuilder(this.length);
+        for(int i=0;i<this.placeholders.length;i++){
+            builder.append(this.literals[i]);
+            int placeholder = this.placeholders[i];
+            if(placeholder>0)
+                tokens.appendTo(builder, placeholder);
+            else if(placeholder==PLAYER)
+                builder.append(sender.getName());
+            else if(sender instanceof Entity){
+                Entity entity = (Entity) sender;
+                if(placeholder==UUID)
+                    builder.append(entity.getUniqueId());
+                else{
+                    Location location = entity.getLocation();
+                    switch(placeholder){
+                        case WORLD: builder.append(location.getWorld()!=null ? location.getWorld().getName() : ""); break;
+                        case X: builder.append(location.getBlockX()); break;
+                        case Y: builder.append(location.getBlockY()); break;
+                        case Z: builder.append(location.getBlockZ()); break;
+                        default: break;
+                    }
+                }
+            }
+        }
+        builder.append(this.literals[this.placeholders.length]);
+        return builder.toString();
+
+    }
+
+    /**
+     * Gets the kind of placeholder with the given name
+     * 
+     * @param name The text between the percent signs
+     * @return The kind, the number for arguments or 0 if it isn't a placeholder
+     */
+    private static int placeholder(String name){
+        switch(name){
+            case "player":
+            case "sender":
+                return PLAYER;
+            case "uuid": return UUID;
+            case "world": return WORLD;
+            case "x": return X;
+            case "y": return Y;
+            case "z": return Z;
+            default:
+                if(name.length()>3 && name.startsWith("arg")){
+                    try{
+                        int number = Integer.parseInt(name.substring(3));
+                        return number>0 ? number : 0;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+                return 0;
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Arrays;
+
+/**
+ * The space separated tokens of a command as offsets into its text, so matching a command never copies its tokens
+ * 
+ * Each thread reuses one instance through {@link #acquire()} and {@link #release()}, a command run while another is being matched gets its own
+ */
+public class CommandTokens {
+
+    // The tokens reused by each thread
+    private static final ThreadLocal<CommandTokens> CACHED = ThreadLocal.withInitial(CommandTokens::new);
+
+    // The text of the command
+    private CharSequence text;
+
+    // The index of the first character of each token
+    private int[] starts = new int[8];
+
+    // The index after the last character of each token
+    private int[] ends = new int[8];
+
+    // The number of tokens
+    private int size;
+
+    // If the text ends with a space so a new token has been started
+    private boolean endsWithSpace;
+
+    // If this is a thread's cached tokens and it is being used
+    private boolean inUse;
+
+    /**
+     * Gets the tokens to use on this thread, call {@link #release()} when done with them
+     * 
+     * @return The thread's cached tokens, or new tokens if they're already being used
+     */
+    public static CommandTokens acquire(){
+        CommandTokens tokens = CACHED.get();
+        if(tokens.inUse)
+            return new CommandTokens();
+        tokens.inUse = true;
+        return tokens;
+    }
+
+    /**
+     * Lets the thread reuse these tokens and drops the text they were for
+     */
+    public void release(){
+        this.text = null;
+        this.inUse = false;
+    }
+
+    /**
+     * Splits a command into its space separated tokens (Empty tokens are skipped and the label has its namespace skipped like {@link CommandTree#normalizeLabel(String)})
+     * 
+     * @param text The text holding the command
+     * @param from The index the command starts at, after any slash
+     * @return These tokens
+     */
+    public CommandTokens tokenize(CharSequence text, int from){
+        this.text = text;
+        this.size = 0;
+        int length = text.length();
+        int start = -1;
+        for(int i=from;i<=length;i++){
+            if(i==length || text.charAt(i)==' '){
+                if(start!=-1){
+                    this.add(start, i);
+                    start = -1;
+                }
+            }
+            else if(start==-1)
+                start = i;
+        }
+        this.endsWithSpace = length>from && text.charAt(length-1)==' ';
+
+        // Skip the namespace of the label unless it picks another command than the label without it
+        if(this.size>0)
+            for(int i=this.starts[0];i<this.ends[0];i++)
+                if(text.charAt(i)==':'){
+                    if(!CommandRegistrar.isDistinctLabel(text.subSequence(this.starts[0], this.ends[0])))
+                        this.starts[0] = i+1;
+                    break;
+                }
+        return this;
+    }
+
+    /**
+     * Adds a token, growing the offsets if needed
+     * 
+     * @param start The index of the first character of the token
+     * @param end The index after the last character of the token
+     */
+    private void add(int start, int end){
+        if(this.size==this.starts.length){
+            this.starts = Arrays.copyOf(this.starts, this.size*2);
+            this.ends = Arrays.copyOf(this.ends, this.size*2);
+        }
+        this.starts[this.size] = start;
+        this.ends[this.size++] = end;
+    }
+
+    /**
+     * Gets the text of the command
+     * 
+     * @return the text the offsets are into
+     */
+    public CharSequence getText(){
+        return this.text;
+    }
+
+    /**
+     * Gets the number of tokens
+     * 
+     * @return the number of tokens, the label included
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Gets where a token starts
+     * 
+     * @param token The index of the token
+     * @return The index of its first character in the text
+     */
+    public int start(int token){
+        return this.starts[token];
+    }
+
+    /**
+     * Gets where a token ends
+     * 
+     * @param token The index of the token
+     * @return The index after its last character in the text
+     */
+    public int end(int token){
+        return this.ends[token];
+    }
+
+    /**
+     * Gets the number of tokens finished by a space, the rest is the token still being typed when tab completing
+     * 
+     * @return The number of finished tokens
+     */
+    public int completed(){
+        return this.endsWithSpace ? this.size : Math.max(0, this.size-1);
+    }
+
+    /**
+     * Appends a token to a builder
+     * 
+     * @param builder The builder to append to
+     * @param token The index of the token, nothing is appended if there aren't that many
+     */
+    public void appendTo(StringBuilder builder, int token){
+        if(token<this.size)
+            builder.append(this.text, this.starts[token], this.ends[token]);
+    }
+
+    /**
+     * Copies a token out of the text
+     * 
+     * @param token The index of the token
+     * @return The text of the token
+     */
+    public String get(int token){
+        return this.text.subSequence(this.starts[token], this.ends[token]).toString();
+    }
+
+}
@@ -0,0 +1,568 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Immutable lookup tree compiled from the commands section of the config
+ * 
+ * Trees are built fully before being published so they can be read from any thread
+ */
+public class CommandTree {
+
+    // Shared result for names that have no command data
+    static final CommandData[] NO_COMMANDS = new CommandData[0];
+
+    // The top commands in the order they appear in the config
+    private final CommandData[] commands;
+
+    // The top commands keyed by each of their lower cased names
+    private final NameTable<CommandData[]> index;
+
+    // Every permission used by a command by the index it was interned at
+    private final String[] permissions;
+
+    // Every command compiled for matching commands by their tokens
+    private final CommandAutomaton automaton;
+
+    // The section (null if read from a snapshot) and its hash of each top command
+    private final ConfigurationSection[] sections;
+    private final long[] hashes;
+
+    // The number of permissions a command still uses, the rest were kept for reused commands of older trees
+    private final int livePermissions;
+
+    /**
+     * Creates a tree without any commands
+     */
+    public CommandTree(){
+        this.commands = NO_COMMANDS;
+        this.index = NameTable.empty();
+        this.permissions = new String[0];
+        this.automaton = null;
+        this.sections = new ConfigurationSection[0];
+        this.hashes = new long[0];
+        this.livePermissions = 0;
+    }
+
+    /**
+     * Compiles the commands in the given section of the config.yml
+     * 
+     * @param cmdSection Section holding every top command
+     * @param previous The previous commands to reuse the unchanged top commands of, null to compile every command
+     * @throws InvalidConfigurationException If any command in the section is invalid
+     */
+    public CommandTree(ConfigurationSection cmdSection, CommandTree previous) throws InvalidConfigurationException{
+        this(Collections.singletonMap("config.yml", cmdSection), previous);
+    }
+
+    /**
+     * Compiles the commands in the given sections, merged in order
+     * 
+     * @param cmdSections Section holding every top command of each file, by the name of the file
+     * @param previous The previous commands to reuse the unchanged top commands of, null to compile every command
+     * @throws InvalidConfigurationException If any command in the sections is invalid
+     */
+    public CommandTree(Map<String, ConfigurationSection> cmdSections, CommandTree previous) throws InvalidConfigurationException{
+
+        // Only reuse commands while the previous tables haven't filled up with permissions nothing uses anymore
+        if(previous!=null && (previous.automaton==null || previous.permissions.length>2*previous.livePermissions+16))
+            previous = null;
+
+        // Get each top command, reusing the previous one if it has the same section (Files that weren't parsed again) or one with the same hash
+        Map<ConfigurationSection, Integer> same = previous!=null ? previous.bySection() : Map.of();
+        Map<Long, Deque<CommandData>> unchanged = previous!=null ? previous.byHash() : Map.of();
+        Set<CommandData> reused = Collections.newSetFromMap(new IdentityHashMap<>());
+        int count = 0;
+        for(ConfigurationSection cmdSection : cmdSections.values())
+            count += cmdSection.getKeys(false).size();
+        this.commands = new CommandData[count];
+        this.sections = new ConfigurationSection[count];
+        this.hashes = new long[count];
+        var i = 0;
+        for(Map.Entry<String, ConfigurationSection> file : cmdSections.entrySet()){
+            ConfigurationSection cmdSection = file.getValue();
+            for(String cmdKey : cmdSection.getKeys(false)){
+                if(!cmdSection.isConfigurationSection(cmdKey))
+                    throw new InvalidConfigurationException(file.getKey()+": Command '"+cmdSection.getCurrentPath()+"."+cmdKey+"' is not a section");
+                ConfigurationSection section = cmdSection.getConfigurationSection(cmdKey);
+                Integer previousIndex = same.get(section);
+                long hash = previousIndex!=null ? previous.hashes[previousIndex] : hash(section);
+                CommandData cmd = previousIndex!=null && !reused.contains(previous.commands[previousIndex]) ? previous.commands[previousIndex] : null;
+                Deque<CommandData> sameHash = unchanged.get(hash);
+                while(cmd==null && sameHash!=null && !sameHash.isEmpty()){
+                    cmd = sameHash.poll();
+                    if(reused.contains(cmd))
+                        cmd = null;
+                }
+                if(cmd!=null)
+                    reused.add(cmd);
+                else{
+                    try{
+                        cmd = new CommandData(section, true);
+                    } catch (InvalidConfigurationException e) {
+                        throw new InvalidConfigurationException(file.getKey()+": "+e.getMessage(), e);
+                    }
+                }
+                this.sections[i] = section;
+                this.hashes[i] = hash;
+                this.commands[i++] = cmd;
+            }
+        }
+
+        // Index them by name
+        this.index = index(this.commands);
+
+        // Intern every new permission into an index for permission snapshots, keeping the indices of the reused commands
+        Map<String, Integer> permissions = new LinkedHashMap<>();
+        if(previous!=null)
+            for(String permission : previous.permissions)
+                permissions.put(permission, permissions.size());
+        Set<String> live = new HashSet<>();
+        for(CommandData cmd : this.commands){
+            if(!reused.contains(cmd))
+                cmd.internPermissions(permissions, new int[0]);
+            cmd.collectPermissions(live);
+        }
+        this.permissions = permissions.keySet().toArray(new String[0]);
+        this.livePermissions = live.size();
+
+        // Compile the automaton matching the commands
+        this.automaton = new CommandAutomaton(this.commands, previous!=null ? previous.automaton : null, reused);
+
+    }
+
+    /**
+     * Compiles the given top commands read from a tree snapshot
+     * 
+     * @param commands The top commands in config order
+     * @param hashes The hash of the section each top command was compiled from
+     * @throws InvalidConfigurationException If the commands use too many argument matchers
+     */
+    CommandTree(CommandData[] commands, long[] hashes) throws InvalidConfigurationException{
+        this.commands = commands;
+        this.sections = new ConfigurationSection[commands.length];
+        this.hashes = hashes;
+        this.index = index(commands);
+        Map<String, Integer> permissions = new LinkedHashMap<>();
+        for(CommandData cmd : commands)
+            cmd.internPermissions(permissions, new int[0]);
+        this.permissions = permissions.keySet().toArray(new String[0]);
+        this.livePermissions = this.permissions.length;
+        this.automaton = new CommandAutomaton(commands, null, Collections.emptySet());
+    }
+
+    /**
+     * Compiles the commands section of the given config
+     * 
+     * @param config The full config holding the commands section
+     * @return The compiled commands
+     * @throws InvalidConfigurationException If the commands section is missing or any command in it is invalid
+     */
+    public static CommandTree load(ConfigurationSection config) throws InvalidConfigurationException{
+        return load(config, null);
+    }
+
+    /**
+     * Compiles the commands section of the given config, reusing the top commands that haven't changed since the previous commands
+     * 
+     * @param config The full config holding the commands section
+     * @param previous The previous commands, null to compile every command
+     * @return The compiled commands
+     * @throws InvalidConfigurationException If the commands section is missing or any command in it is invalid
+     */
+    public static CommandTree load(ConfigurationSection config, CommandTree previous) throws InvalidConfigurationException{
+        return load(config, Collections.emptyMap(), previous);
+    }
+
+    /**
+     * Compiles the commands section of the given config followed by the commands of other files, reusing the top commands that haven't changed since the previous commands
+     * 
+     * @param config The full config holding the commands section
+     * @param files The commands section of each other file by the name of the file, in the order to add them
+     * @param previous The previous commands, null to compile every command
+     * @return The compiled commands
+     * @throws InvalidConfigurationException If no file has any commands or any command in them is invalid
+     */
+    public static CommandTree load(ConfigurationSection config, Map<String, ConfigurationSection> files, CommandTree previous) throws InvalidConfigurationException{
+
+        // The config only needs commands if there are no other files
+        Map<String, ConfigurationSection> cmdSections = new LinkedHashMap<>();
+        if(config.isConfigurationSection("commands"))
+            cmdSections.put("config.yml", config.getConfigurationSection("commands"));
+        else if(files.isEmpty())
+            throw new InvalidConfigurationException("The config is missing the commands section");
+        cmdSections.putAll(files);
+        try{
+            return new CommandTree(cmdSections, previous);
+        } catch (CommandAutomaton.TooManyMatchersException e) {
+
+            // The previous argument matchers may have used up the bits, so try again from scratch before giving up
+            if(previous==null)
+                throw e;
+            return new CommandTree(cmdSections, null);
+
+        }
+    }
+
+    /**
+     * Gets the position of the top command of each section to find the ones whose file wasn't parsed again
+     * 
+     * @return The position of the top command by its section (Commands read from a snapshot have no section)
+     */
+    private Map<ConfigurationSection, Integer> bySection(){
+        Map<ConfigurationSection, Integer> bySection = new IdentityHashMap<>(this.sections.length*2);
+        for(int i=0;i<this.sections.length;i++)
+            if(this.sections[i]!=null)
+                bySection.put(this.sections[i], i);
+        return bySection;
+    }
+
+    /**
+     * Groups the top commands by the hash of their section to find the unchanged ones
+     * 
+     * @return The top commands by hash in config order
+     */
+    private Map<Long, Deque<CommandData>> byHash(){
+        Map<Long, Deque<CommandData>> byHash = new HashMap<>(this.commands.length*2);
+        for(int i=0;i<this.commands.length;i++)
+            byHash.computeIfAbsent(this.hashes[i], k -> new ArrayDeque<>()).add(this.commands[i]);
+        return byHash;
+    }
+
+    /**
+     * Hashes everything in a config section so sections with the same settings and sub commands have the same hash
+     * 
+     * @param section The section to hash
+     * @return The 64 bit FNV-1a hash of the section
+     */
+    static long hash(ConfigurationSection section){
+        return hash(0xcbf29ce484222325L, section);
+    }
+
+    /**
+     * Adds everything in a config section to a hash
+     * 
+     * @param hash The hash so far
+     * @param section The section to add
+     * @return The new hash
+     */
+    private static long hash(long hash, ConfigurationSection section){
+        for(String key : section.getKeys(false)){
+            hash = hash(hash, key);
+            Object value = section.get(key);
+            if(value instanceof ConfigurationSection)
+                hash = hash(hash(hash, "{"), (ConfigurationSection) value);
+            else if(value instanceof List){
+                hash = hash(hash, "[");
+                for(Object element : (List<?>) value)
+                    hash = hash(hash, String.valueOf(element));
+            }
+            else
+                hash = hash(hash, String.valueOf(value));
+            hash = hash(hash, "}");
+        }
+        return hash;
+    }
+
+    /**
+     * Adds a string to a hash, ended by a character config text doesn't have so neighbouring strings can't run together
+     * 
+     * @param hash The hash so far
+     * @param text The string to add
+     * @return The new hash
+     */
+    private static long hash(long hash, String text){
+        for(int i=0;i<=text.length();i++){
+            hash ^= i<text.length() ? text.charAt(i) : 0;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Compares the top commands of two trees
+     * 
+     * @param previous The commands before the reload
+     * @return The names of the top commands added, removed and changed since the previous commands
+     */
+    public Diff diff(CommandTree previous){
+
+        // Commands that weren't reused are new or changed
+        Set<CommandData> before = Collections.newSetFromMap(new IdentityHashMap<>());
+        before.addAll(Arrays.asList(previous.commands));
+        Set<String> beforeNames = new HashSet<>();
+        for(CommandData cmd : previous.commands)
+            beforeNames.add(cmd.getName());
+        Set<String> afterNames = new HashSet<>();
+        Diff diff = new Diff();
+        for(CommandData cmd : this.commands){
+            afterNames.add(cmd.getName());
+            if(before.remove(cmd))
+                diff.unchanged++;
+            else if(beforeNames.contains(cmd.getName()))
+                diff.changed.add(cmd.getName());
+            else
+                diff.added.add(cmd.getName());
+        }
+
+        // Commands left over were removed unless one with the same name is still there
+        for(CommandData cmd : before)
+            if(!afterNames.contains(cmd.getName()))
+                diff.removed.add(cmd.getName());
+            else if(!diff.changed.contains(cmd.getName()))
+                diff.changed.add(cmd.getName());
+        return diff;
+
+    }
+
+    /**
+     * Pairs each command of the commands these replaced with the command with the same names in these, so what players did with a command outlives a reload
+     * 
+     * @param previous The commands these replaced (May be null)
+     * @return The new command of each command and sub command of the previous commands still in these
+     */
+    Map<CommandData, CommandData> carryOver(CommandTree previous){
+        Map<CommandData, CommandData> kept = new IdentityHashMap<>();
+        if(previous!=null)
+            CommandData.carryOver(previous.commands, this.commands, kept);
+        return kept;
+    }
+
+    /**
+     * Gets every top command
+     * 
+     * @return the top commands in config order
+     */
+    public CommandData[] getCommands(){
+        return this.commands;
+    }
+
+    /**
+     * Gets the hash of the section each top command was compiled from
+     * 
+     * @return the hashes in the order of the top commands
+     */
+    long[] getHashes(){
+        return this.hashes;
+    }
+
+    /**
+     * Gets every permission used by a command
+     * 
+     * @return the distinct permissions, each at the index it was interned at
+     */
+    public String[] getPermissions(){
+        return this.permissions;
+    }
+
+    /**
+     * Gets the top commands with the name or alias of the given token
+     * 
+     * @param tokens The tokens of the command
+     * @param token The index of the token with the name of the command
+     * @return The commands with that name in config order (Empty if none)
+     */
+    public CommandData[] getCommands(CommandTokens tokens, int token){
+        CommandData[] cmds = this.index.get(tokens.getText(), tokens.start(token), tokens.end(token));
+        return cmds!=null ? cmds : NO_COMMANDS;
+    }
+
+    /**
+     * Gets the state of the command automaton before any token
+     * 
+     * @return The root state, null if there are no commands
+     */
+    public CommandAutomaton.State getRoot(){
+        return this.automaton==null ? null : this.automaton.getRoot();
+    }
+
+    /**
+     * Gets the command data that exactly matches the given command
+     * 
+     * @param sender The sender trying to run the command
+     * @param perms The permissions of the sender
+     * @param tokens The tokens of the command
+     * @return The first command in config order matching every token that applies to the sender, null if none
+     */
+    public CommandData getCommandData(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+
+        // Step through the automaton with each token
+        CommandAutomaton.State state = this.getRoot();
+        for(int i=0;i<tokens.size() && state!=null;i++)
+            state = state.next(tokens, i);
+        if(state==null)
+            return null;
+
+        // Get the first command matched that the sender has permission for and whose when expression holds
+        for(CommandData cmd : state.getCommands())
+            if(cmd.hasPathPermission(perms) && cmd.isConditionMet(sender, perms, tokens))
+                return cmd;
+        return null;
+
+    }
+
+    /**
+     * Gets the deepest command the tokens reach, no matter the sender
+     * 
+     * @param tokens The tokens of the command or tab buffer
+     * @return The first command in config order matched by the most tokens, null if none
+     */
+    public CommandData getDeepestCommand(CommandTokens tokens){
+        CommandData deepest = null;
+        CommandAutomaton.State state = this.getRoot();
+        for(int i=0;i<tokens.size() && state!=null;i++){
+            state = state.next(tokens, i);
+            if(state!=null && state.getCommands().length>0)
+                deepest = state.getCommands()[0];
+        }
+        return deepest;
+    }
+
+    /**
+     * Checks if the given sender can run the default version of the given command
+     * 
+     * @param sender The sender trying to run the command
+     * @param perms The permissions of the sender
+     * @param tokens The tokens of the command
+     * @return If no matching command disables the default version
+     */
+    public boolean canRunDefault(CommandSender sender, PermissionSnapshot perms, CommandTokens tokens){
+
+        // Every command matched along the way has to allow it
+        CommandAutomaton.State state = this.getRoot();
+        for(int i=0;i<tokens.size() && state!=null;i++){
+            if(i>0 && state.blocksSubCommands(sender, perms, tokens))
+                return false;
+            state = state.next(tokens, i);
+        }
+        return state==null || tokens.size()==0 || !state.blocksCommand(sender, perms, tokens);
+
+    }
+
+    /**
+     * Normalizes a command label so every spelling of the same command is the same, like /GIVE and /minecraft:give being give
+     * (A namespaced label the server knows to run another command than the label without it, like /minecraft:give when a plugin replaced /give, keeps its namespace)
+     * 
+     * @param label The label of the command without the slash
+     * @return The lower cased label, without its namespace unless the namespace picks another command
+     */
+    public static String normalizeLabel(String label){
+        int colon = label.indexOf(':');
+        if(colon==-1 || CommandRegistrar.isDistinctLabel(label))
+            return label.toLowerCase(Locale.ROOT);
+        return label.substring(colon+1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Indexes the given commands by each of their lower cased names
+     * 
+     * @param commands The commands to index in config order
+     * @return A table of name to every command with that name in config order
+     */
+    static NameTable<CommandData[]> index(CommandData[] commands){
+
+        // No need for a table if there is nothing in it
+        if(commands.length==0)
+            return NameTable.empty();
+
+        // Group the commands by name keeping the config order
+        Map<String, List<CommandData>> grouped = new LinkedHashMap<>();
+        for(CommandData cmd : commands)
+            for(String name : cmd.getNames()){
+                if(ArgumentMatcher.isMatcher(name))
+                    continue;
+                List<CommandData> group = grouped.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>());
+                if(group.isEmpty() || group.get(group.size()-1)!=cmd)
+                    group.add(cmd);
+            }
+
+        // Flatten each group into an array for the lookups, sharing one array between the names of a group (Like every alias of a command)
+        Map<String, CommandData[]> index = new HashMap<>(grouped.size()*2);
+        Map<List<CommandData>, CommandData[]> arrays = new HashMap<>();
+        for(Map.Entry<String, List<CommandData>> entry : grouped.entrySet())
+            index.put(entry.getKey(), arrays.computeIfAbsent(entry.getValue(), group -> group.toArray(NO_COMMANDS)));
+        return new NameTable<>(index);
+
+    }
+
+    /**
+     * The names of the top commands changed by a reload
+     */
+    public static class Diff {
+
+        // The commands that weren't there before
+        private final List<String> added = new ArrayList<>();
+
+        // The commands that aren't there anymore
+        private final List<String> removed = new ArrayList<>();
+
+        // The commands whose settings or sub commands changed
+        private final List<String> changed = new ArrayList<>();
+
+        // The number of commands reused as they were
+        private int unchanged;
+
+        /**
+         * Gets the commands that weren't there before
+         * 
+         * @return the names of the added commands
+         */
+        public List<String> getAdded(){
+            return this.added;
+        }
+
+        /**
+         * Gets the commands that aren't there anymore
+         * 
+         * @return the names of the removed commands
+         */
+        public List<String> getRemoved(){
+            return this.removed;
+        }
+
+        /**
+         * Gets the commands whose settings or sub commands changed
+         * 
+         * @return the names of the changed commands
+         */
+        public List<String> getChanged(){
+            return this.changed;
+        }
+
+        /**
+         * Gets the number of commands reused as they were
+         * 
+         * @return the number of unchanged commands
+         */
+        public int getUnchanged(){
+            return this.unchanged;
+        }
+
+        /**
+         * Checks if nothing changed
+         * 
+         * @return If no command was added, removed or changed
+         */
+        public boolean isEmpty(){
+            return this.added.isEmpty() && this.removed.isEmpty() && this.changed.isEmpty();
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Watches the config file and a folder of command files on a background thread and reports when they change
+ * 
+ * Bursts of writes (like an editor saving or a deploy copying the files) are reported once they have been quiet for the debounce time
+ */
+public class ConfigWatcher implements Runnable {
+
+    // The file watched and the folder holding it
+    private final Path file;
+    private final Path parent;
+
+    // The folder of command files watched with its sub folders
+    private final Path folder;
+
+    // Milliseconds without writes before a change is reported
+    private final long debounce;
+
+    // Called on the watcher thread when the contents change
+    private final Runnable onChange;
+
+    private final Logger logger;
+
+    private final WatchService service;
+
+    // Checksum of the files last reported, -1 if the config file couldn't be read
+    private long checksum;
+
+    /**
+     * Starts watching the files
+     * 
+     * @param file The config file to watch
+     * @param folder The folder of command files to watch (It doesn't have to exist)
+     * @param debounce Milliseconds without writes before a change is reported
+     * @param onChange Called on the watcher thread when the contents of the files change
+     * @param logger The logger to warn of errors reading the files
+     * @throws IOException If the folder of the config file can't be watched
+     */
+    public ConfigWatcher(Path file, Path folder, long debounce, Runnable onChange, Logger logger) throws IOException{
+        this.file = file.toAbsolutePath();
+        this.parent = this.file.getParent();
+        this.folder = folder.toAbsolutePath();
+        this.debounce = Math.max(0, debounce);
+        this.onChange = onChange;
+        this.logger = logger;
+        this.checksum = this.checksum();
+
+        // Files replaced by a move are created instead of modified
+        this.service = this.parent.getFileSystem().newWatchService();
+        this.parent.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.registerFolders(this.folder);
+        Thread thread = new Thread(this, "CommandManager config watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the files, a change being reported is not interrupted
+     */
+    public void close(){
+        try{
+            this.service.close();
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not stop watching "+this.file, e);
+        }
+    }
+
+    @Override
+    public void run(){
+        try{
+
+            // Wait for a write then keep waiting until the writes stop for the debounce time
+            long deadline = 0;
+            boolean pending = false;
+            while(true){
+                WatchKey key = pending ? this.service.poll(Math.max(0, deadline-System.nanoTime()), TimeUnit.NANOSECONDS) : this.service.take();
+                if(key!=null){
+                    if(this.isWritten(key)){
+                        pending = true;
+                        deadline = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(this.debounce);
+                    }
+                    key.reset();
+                }
+                else if(pending && System.nanoTime()-deadline>=0){
+                    pending = false;
+                    this.report();
+                }
+            }
+
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Checks if any of the events of a key are for the watched files, watching any new folders of command files
+     * 
+     * @param key The key with the events
+     * @return If a watched file was written
+     */
+    private boolean isWritten(WatchKey key){
+        Path directory = (Path) key.watchable();
+        boolean written = false;
+        for(WatchEvent<?> event : key.pollEvents()){
+            if(event.kind()==StandardWatchEventKinds.OVERFLOW){
+                written = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if(path.startsWith(this.folder)){
+                if(event.kind()==StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+                    this.registerFolders(path);
+                written = true;
+            }
+            else if(path.equals(this.file))
+                written = true;
+        }
+        return written;
+    }
+
+    /**
+     * Watches a folder of command files and every folder in it
+     * 
+     * @param folder The folder to watch
+     */
+    private void registerFolders(Path folder){
+        if(!Files.isDirectory(folder))
+            return;
+        try(Stream<Path> walk = Files.walk(folder)){
+            for(Path directory : walk.filter(Files::isDirectory).collect(Collectors.toList()))
+                directory.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not watch "+folder+" for changes", e);
+        }
+    }
+
+    /**
+     * Reports a change if the files are different from the last ones reported
+     */
+    private void report(){
+        long checksum = this.checksum();
+        if(checksum<0 || checksum==this.checksum)
+            return;
+        this.checksum = checksum;
+        try{
+            this.onChange.run();
+        } catch (RuntimeException e) {
+            this.logger.log(Level.WARNING, "Could not reload after "+this.file+" changed", e);
+        }
+    }
+
+    /**
+     * Gets a checksum of the contents of the config file and the path, time and size of each command file (Their contents are checked when they're loaded)
+     * 
+     * @return The checksum, -1 if the config file couldn't be read (like when it's removed during a deploy)
+     */
+    private long checksum(){
+        CRC32 crc = new CRC32();
+        try{
+            crc.update(Files.readAllBytes(this.file));
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not read "+this.file, e);
+            return -1;
+        }
+        if(Files.isDirectory(this.folder)){
+            try(Stream<Path> walk = Files.walk(this.folder)){
+                List<Path> paths = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                for(Path path : paths){
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    crc.update((path+"|"+attributes.lastModifiedTime().toMillis()+"|"+attributes.size()+"\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // A file moved while walking is caught by the event of the move
+                crc.update(0);
+            }
+        }
+        return crc.getValue();
+    }
+
+}
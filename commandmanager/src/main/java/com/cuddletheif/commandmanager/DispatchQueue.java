@@ -0,0 +1,219 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the new commands of queued commands a few at a time each tick instead of all at once
+ * 
+ * Everything here must be called on the main thread
+ */
+public class DispatchQueue {
+
+    // The message sent when the new commands of a command can't be queued unless the config has another
+    private static final String DEFAULT_MESSAGE = "You are using that command too quickly, please wait a moment";
+
+    // The plugin running the queue
+    private final Plugin plugin;
+
+    // The new commands waiting to be run in order
+    private final Queue<Dispatch> queue = new ArrayDeque<>();
+
+    // How many new commands each player queued in the current second
+    private final Map<UUID, Window> playerWindows = new HashMap<>();
+
+    // How many new commands were queued in the current second by everyone
+    private final Window globalWindow = new Window();
+
+    // When each player last queued each command
+    private final Map<UUID, Map<CommandData, Long>> lastQueued = new HashMap<>();
+
+    // The task running the queue each tick, null when nothing is queued
+    private BukkitTask task;
+
+    // Most new commands run each tick
+    private int perTick;
+
+    // Most new commands a single player can queue each second (0 for no limit)
+    private int playerLimit;
+
+    // Most new commands everyone can queue each second (0 for no limit)
+    private int globalLimit;
+
+    // Milliseconds before the same player can queue the same command again
+    private long cooldown;
+
+    // Sent to the sender when their new commands can't be queued (Empty to send nothing)
+    private String message;
+
+    /**
+     * Creates a queue for the given plugin
+     * 
+     * @param plugin The plugin to schedule the queue with
+     */
+    public DispatchQueue(Plugin plugin){
+        this.plugin = plugin;
+        this.configure(null);
+    }
+
+    /**
+     * Loads the settings of the queue
+     * 
+     * @param section The dispatch-queue section of the config (May be null for the defaults)
+     */
+    public void configure(ConfigurationSection section){
+        this.perTick = Math.max(1, section!=null ? section.getInt("per-tick", 10) : 10);
+        this.playerLimit = Math.max(0, section!=null ? section.getInt("player-limit", 20) : 20);
+        this.globalLimit = Math.max(0, section!=null ? section.getInt("global-limit", 200) : 200);
+        this.cooldown = Math.max(0, section!=null ? section.getLong("cooldown", 0) : 0);
+        this.message = section!=null ? section.getString("message", DEFAULT_MESSAGE) : DEFAULT_MESSAGE;
+    }
+
+    /**
+     * Gets the message sent to a sender whose new commands couldn't be queued
+     * 
+     * @return the message, empty to send nothing
+     */
+    public String getMessage(){
+        return this.message;
+    }
+
+    /**
+     * Queues the new commands of a command if the limits allow it
+     * 
+     * @param sender The sender who ran the command
+     * @param cmd The command whose new commands are run
+     * @param runAs The sender to run the new commands as
+     * @param commands The new commands with their placeholders filled in
+     * @return If the commands were queued, false if the sender or server is over a limit
+     */
+    public boolean submit(CommandSender sender, CommandData cmd, CommandSender runAs, String[] commands){
+
+        long now = System.currentTimeMillis();
+        UUID id = sender instanceof Player ? ((Player) sender).getUniqueId() : null;
+
+        // Check the cooldown and limits before counting anything
+        long cooldown = cmd.getQueueCooldown()>=0 ? cmd.getQueueCooldown() : this.cooldown;
+        Map<CommandData, Long> queued = id!=null ? this.lastQueued.computeIfAbsent(id, k -> new HashMap<>()) : null;
+        if(queued!=null && cooldown>0){
+            Long last = queued.get(cmd);
+            if(last!=null && now-last<cooldown)
+                return false;
+        }
+        Window playerWindow = id!=null ? this.playerWindows.computeIfAbsent(id, k -> new Window()) : null;
+        if(!this.globalWindow.allows(now, commands.length, this.globalLimit) || (playerWindow!=null && !playerWindow.allows(now, commands.length, this.playerLimit)))
+            return false;
+
+        // Count and queue the commands
+        this.globalWindow.count += commands.length;
+        if(playerWindow!=null)
+            playerWindow.count += commands.length;
+        if(queued!=null)
+            queued.put(cmd, now);
+        for(String command : commands)
+            this.queue.add(new Dispatch(runAs, command));
+
+        // Start running the queue if it isn't already
+        if(this.task==null)
+            this.task = Bukkit.getScheduler().runTaskTimer(this.plugin, this::drain, 1, 1);
+        return true;
+
+    }
+
+    /**
+     * Forgets the limits and cooldowns of a player
+     * 
+     * @param id The id of the player
+     */
+    public void forget(UUID id){
+        this.playerWindows.remove(id);
+        this.lastQueued.remove(id);
+    }
+
+    /**
+     * Moves the cooldowns of the commands still there after a reload to the commands replacing them, forgetting the ones of removed commands
+     * 
+     * @param kept The new command of each old command still there
+     */
+    public void carryOver(Map<CommandData, CommandData> kept){
+        for(Map<CommandData, Long> queued : this.lastQueued.values()){
+            Map<CommandData, Long> carried = new HashMap<>();
+            for(Map.Entry<CommandData, Long> entry : queued.entrySet())
+                if(kept.containsKey(entry.getKey()))
+                    carried.put(kept.get(entry.getKey()), entry.getValue());
+            queued.clear();
+            queued.putAll(carried);
+        }
+    }
+
+    /**
+     * Runs up to the per tick limit of queued commands and stops once the queue is empty
+     */
+    private void drain(){
+
+        for(int i=0;i<this.perTick;i++){
+            Dispatch dispatch = this.queue.poll();
+            if(dispatch==null)
+                break;
+            if(!(dispatch.runAs instanceof Player) || ((Player) dispatch.runAs).isOnline())
+                Bukkit.getServer().dispatchCommand(dispatch.runAs, dispatch.command);
+        }
+        if(this.queue.isEmpty()){
+            this.task.cancel();
+            this.task = null;
+        }
+
+    }
+
+    /**
+     * A new command waiting to be run
+     */
+    private static class Dispatch {
+
+        private final CommandSender runAs;
+        private final String command;
+
+        private Dispatch(CommandSender runAs, String command){
+            this.runAs = runAs;
+            this.command = command;
+        }
+
+    }
+
+    /**
+     * Counts commands queued in one second
+     */
+    private static class Window {
+
+        private long start;
+        private int count;
+
+        /**
+         * Checks if the given number of commands can still be queued this second
+         * 
+         * @param now The current time in milliseconds
+         * @param commands The number of commands to queue
+         * @param limit The most commands each second (0 for no limit)
+         * @return If the commands fit in the limit
+         */
+        private boolean allows(long now, int commands, int limit){
+            if(now-this.start>=1000){
+                this.start = now;
+                this.count = 0;
+            }
+            return limit==0 || this.count+commands<=limit;
+        }
+
+    }
+
+}
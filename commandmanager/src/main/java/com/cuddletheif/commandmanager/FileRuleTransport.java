@@ -0,0 +1,147 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sends published commands through a folder every server can read, like a shared drive or a folder on the same machine for testing
+ * 
+ * Each message is a file named by a number that only goes up, and receiving servers check the folder for newer files every second
+ * (Shared drives often don't report changes so the folder isn't watched)
+ */
+public class FileRuleTransport implements RuleTransport, Runnable {
+
+    // End of the name of every message file
+    private static final String EXTENSION = ".rules";
+
+    // Number of message files kept, enough for servers that were busy to catch up
+    private static final int KEPT_FILES = 16;
+
+    // Milliseconds between checks for new files
+    private static final long POLL_MILLIS = 1000;
+
+    // The shared folder
+    private final Path folder;
+
+    private final Logger logger;
+
+    // The number of the last message file written by this server
+    private long sent;
+
+    // The name of the last message file passed on
+    private String received = "";
+
+    // Called with each new message, null until started
+    private volatile Consumer<byte[]> receiver;
+
+    // The thread checking for new files, null until started
+    private Thread thread;
+
+    /**
+     * Creates a transport through the given folder
+     * 
+     * @param folder The folder every server can read
+     * @param logger The logger to warn of errors reading the folder
+     */
+    public FileRuleTransport(Path folder, Logger logger){
+        this.folder = folder.toAbsolutePath();
+        this.logger = logger;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) throws IOException{
+        Files.createDirectories(this.folder);
+        this.receiver = receiver;
+        this.thread = new Thread(this, "CommandManager rule receiver");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public synchronized void send(byte[] message) throws IOException{
+
+        // Name the file after the time so a publisher that restarts still writes newer names
+        Files.createDirectories(this.folder);
+        this.sent = Math.max(this.sent+1, System.currentTimeMillis());
+        Path file = this.folder.resolve(String.format(Locale.ROOT, "%016x", this.sent)+EXTENSION);
+
+        // Replace the file all at once so it's never read half written
+        Path temp = Files.createTempFile(this.folder, file.getFileName().toString(), ".tmp");
+        try{
+            Files.write(temp, message);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        // Remove the oldest files
+        List<Path> files = this.list();
+        for(int i=0;i<files.size()-KEPT_FILES;i++)
+            Files.deleteIfExists(files.get(i));
+
+    }
+
+    @Override
+    public void close(){
+        this.receiver = null;
+        if(this.thread!=null)
+            this.thread.interrupt();
+    }
+
+    @Override
+    public void run(){
+        try{
+            while(this.receiver!=null){
+                this.poll();
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Passes on every message file newer than the last one passed on
+     */
+    private void poll(){
+        try{
+            for(Path file : this.list()){
+                String name = file.getFileName().toString();
+                Consumer<byte[]> receiver = this.receiver;
+                if(name.compareTo(this.received)<=0 || receiver==null)
+                    continue;
+                this.received = name;
+                try{
+                    receiver.accept(Files.readAllBytes(file));
+                } catch (NoSuchFileException e) {
+                    // Removed by the publisher since it was listed
+                }
+            }
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not read the commands in "+this.folder, e);
+        }
+    }
+
+    /**
+     * Lists the message files in the folder
+     * 
+     * @return The files from oldest to newest
+     * @throws IOException If the folder couldn't be read
+     */
+    private List<Path> list() throws IOException{
+        try(Stream<Path> files = Files.list(this.folder)){
+            return files.filter(file -> file.getFileName().toString().endsWith(EXTENSION)).sorted().collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of nanosecond latencies in log scale buckets (4 per power of two, so within 25%)
+ */
+public class LatencyHistogram {
+
+    // Enough buckets for any positive long
+    private static final int BUCKETS = 252;
+
+    // Number of recorded latencies
+    private final LongAdder count = new LongAdder();
+
+    // Sum of every recorded latency
+    private final LongAdder total = new LongAdder();
+
+    // The highest recorded latency
+    private final AtomicLong max = new AtomicLong();
+
+    // Number of latencies in each bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one latency
+     * 
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos){
+        if(nanos<0)
+            nanos = 0;
+        this.count.increment();
+        this.total.add(nanos);
+        this.buckets.incrementAndGet(bucket(nanos));
+        long max = this.max.get();
+        while(nanos>max && !this.max.compareAndSet(max, nanos))
+            max = this.max.get();
+    }
+
+    /**
+     * Gets the number of recorded latencies
+     * 
+     * @return the count
+     */
+    public long getCount(){
+        return this.count.sum();
+    }
+
+    /**
+     * Gets the sum of every recorded latency
+     * 
+     * @return the total in nanoseconds
+     */
+    public long getTotal(){
+        return this.total.sum();
+    }
+
+    /**
+     * Gets the highest recorded latency
+     * 
+     * @return the max in nanoseconds
+     */
+    public long getMax(){
+        return this.max.get();
+    }
+
+    /**
+     * Gets the average recorded latency
+     * 
+     * @return the mean in nanoseconds, 0 if nothing was recorded
+     */
+    public long getMean(){
+        long count = this.getCount();
+        return count==0 ? 0 : this.getTotal()/count;
+    }
+
+    /**
+     * Estimates the latency the given fraction of recorded latencies are at or below
+     * 
+     * @param fraction The fraction from 0 to 1, like 0.99 for the 99th percentile
+     * @return the upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction){
+        long count = 0;
+        long[] buckets = new long[BUCKETS];
+        for(int i=0;i<BUCKETS;i++){
+            buckets[i] = this.buckets.get(i);
+            count += buckets[i];
+        }
+        if(count==0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(count*fraction));
+        long seen = 0;
+        for(int i=0;i<BUCKETS;i++){
+            seen += buckets[i];
+            if(seen>=target)
+                return Math.min(upperBound(i), this.getMax());
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Gets the bucket of a latency
+     * 
+     * @param nanos The latency, not negative
+     * @return the index of the bucket
+     */
+    private static int bucket(long nanos){
+        if(nanos<4)
+            return (int) nanos;
+        int exponent = 63-Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos>>>(exponent-2)) & 3;
+        return exponent*4+sub-4;
+    }
+
+    /**
+     * Gets the highest latency in a bucket
+     * 
+     * @param bucket The index of the bucket
+     * @return the upper bound in nanoseconds
+     */
+    private static long upperBound(int bucket){
+        if(bucket<4)
+            return bucket;
+        int exponent = (bucket+4)/4;
+        int sub = (bucket+4)%4;
+        return ((4L+sub+1)<<(exponent-2))-1;
+    }
+
+}
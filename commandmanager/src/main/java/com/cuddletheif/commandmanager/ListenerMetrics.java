@@ -0,0 +1,161 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times each listener, overall and by the command it matched, cheaply enough to always be on
+ */
+public class ListenerMetrics {
+
+    /**
+     * The timed listeners
+     */
+    public enum Kind {
+        PLAYER_COMMAND("Player commands"),
+        SERVER_COMMAND("Server commands"),
+        TAB_COMPLETE("Tab completes"),
+        ASYNC_TAB_COMPLETE("Async tab completes (off the main thread)"),
+        COMMAND_SEND("Command sends"),
+        NEW_COMMANDS("New commands run (Not counted in the command listeners)");
+
+        // The name shown in the stats
+        private final String title;
+
+        Kind(String title){
+            this.title = title;
+        }
+    }
+
+    // Name used for events that didn't match a command
+    private static final String NO_COMMAND = "(no command)";
+
+    // Number of commands shown for each listener in the stats
+    private static final int TOP_COMMANDS = 5;
+
+    // The overall latencies of each listener
+    private final LatencyHistogram[] listeners = new LatencyHistogram[Kind.values().length];
+
+    // The latencies of each listener by the path of the command matched
+    private final List<Map<String, LatencyHistogram>> commands = new ArrayList<>();
+
+    // If latencies are recorded
+    private volatile boolean enabled = true;
+
+    // When the stats were last reset
+    private volatile long since = System.currentTimeMillis();
+
+    /**
+     * Creates empty metrics
+     */
+    public ListenerMetrics(){
+        for(Kind listener : Kind.values()){
+            this.listeners[listener.ordinal()] = new LatencyHistogram();
+            this.commands.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Turns recording on or off
+     * 
+     * @param enabled If latencies should be recorded
+     */
+    public void setEnabled(boolean enabled){
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets the start time to pass to {@link #record(Kind, CommandData, long)}
+     * 
+     * @return the current time in nanoseconds, 0 if recording is off
+     */
+    public long start(){
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since the start of a listener
+     * 
+     * @param listener The listener that ran
+     * @param cmd The command it matched, null if none
+     * @param start The time from {@link #start()}
+     */
+    public void record(Kind listener, CommandData cmd, long start){
+        if(start==0 || !this.enabled)
+            return;
+        long nanos = System.nanoTime()-start;
+        this.listeners[listener.ordinal()].record(nanos);
+        this.commands.get(listener.ordinal()).computeIfAbsent(cmd!=null ? cmd.getPath() : NO_COMMAND, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Forgets everything recorded so far
+     */
+    public void reset(){
+        for(Kind listener : Kind.values()){
+            this.listeners[listener.ordinal()] = new LatencyHistogram();
+            this.commands.get(listener.ordinal()).clear();
+        }
+        this.since = System.currentTimeMillis();
+    }
+
+    /**
+     * Describes everything recorded so far
+     * 
+     * @return the lines of the report
+     */
+    public List<String> report(){
+
+        List<String> lines = new ArrayList<>();
+        lines.add("CommandManager stats over the last "+format((System.currentTimeMillis()-this.since)*1_000_000)+(this.enabled ? "" : " (Recording is off)"));
+        for(Kind listener : Kind.values()){
+
+            // The overall latencies
+            LatencyHistogram histogram = this.listeners[listener.ordinal()];
+            lines.add(listener.title+": "+describe(histogram));
+
+            // The commands that took the most time
+            List<Map.Entry<String, LatencyHistogram>> entries = new ArrayList<>(this.commands.get(listener.ordinal()).entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<String, LatencyHistogram> entry) -> entry.getValue().getTotal()).reversed());
+            for(int i=0;i<entries.size() && i<TOP_COMMANDS;i++){
+                String name = entries.get(i).getKey();
+                lines.add("  "+(name.equals(NO_COMMAND) ? name : "/"+name)+": "+describe(entries.get(i).getValue()));
+            }
+
+        }
+        return lines;
+
+    }
+
+    /**
+     * Describes one histogram
+     * 
+     * @param histogram The histogram to describe
+     * @return the count, total, mean, percentiles and max
+     */
+    private static String describe(LatencyHistogram histogram){
+        return histogram.getCount()+" calls, total "+format(histogram.getTotal())+", mean "+format(histogram.getMean())
+            +", p50 "+format(histogram.getPercentile(0.5))+", p99 "+format(histogram.getPercentile(0.99))+", max "+format(histogram.getMax());
+    }
+
+    /**
+     * Formats nanoseconds in the most readable unit
+     * 
+     * @param nanos The time in nanoseconds
+     * @return the formatted time
+     */
+    private static String format(long nanos){
+        if(nanos<10_000)
+            return nanos+"ns";
+        if(nanos<10_000_000)
+            return String.format(Locale.ROOT, "%.1fus", nanos/1_000.0);
+        if(nanos<10_000_000_000L)
+            return String.format(Locale.ROOT, "%.1fms", nanos/1_000_000.0);
+        return String.format(Locale.ROOT, "%.1fs", nanos/1_000_000_000.0);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable table of lower cased names that can be looked up by a region of any text ignoring case, so tokens never have to be copied out of a command
+ * 
+ * @param <V> The type of the values
+ */
+public class NameTable<V> {
+
+    // Shared table without any names
+    private static final NameTable<Object> EMPTY = new NameTable<>(Map.of());
+
+    // The names by their slot, null for empty slots
+    private final String[] names;
+
+    // The value of each name at the same slot
+    private final Object[] values;
+
+    // The number of names
+    private final int size;
+
+    /**
+     * Creates a table with the given names
+     * 
+     * @param entries The values by their lower cased names
+     */
+    public NameTable(Map<String, V> entries){
+
+        // Keep the table at most half full so misses end quickly
+        int capacity = Integer.highestOneBit(Math.max(1, entries.size())*2-1)<<1;
+        this.names = new String[capacity];
+        this.values = new Object[capacity];
+        this.size = entries.size();
+        for(Map.Entry<String, V> entry : entries.entrySet()){
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            int slot = hash(name, 0, name.length()) & (capacity-1);
+            while(this.names[slot]!=null)
+                slot = (slot+1) & (capacity-1);
+            this.names[slot] = name;
+            this.values[slot] = entry.getValue();
+        }
+
+    }
+
+    /**
+     * Gets the table without any names
+     * 
+     * @param <V> The type of the values
+     * @return the empty table
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> NameTable<V> empty(){
+        return (NameTable<V>) EMPTY;
+    }
+
+    /**
+     * Gets the value of the name in the given region of some text, ignoring case
+     * 
+     * @param text The text holding the name
+     * @param start The index of the first character of the name
+     * @param end The index after the last character of the name
+     * @return The value, null if the name isn't in the table
+     */
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence text, int start, int end){
+        if(this.size==0)
+            return null;
+        int mask = this.names.length-1;
+        for(int slot=hash(text, start, end) & mask;this.names[slot]!=null;slot=(slot+1) & mask)
+            if(equalsIgnoreCase(this.names[slot], text, start, end))
+                return (V) this.values[slot];
+        return null;
+    }
+
+    /**
+     * Gets the value of the given name, ignoring case
+     * 
+     * @param name The name
+     * @return The value, null if the name isn't in the table
+     */
+    public V get(String name){
+        return this.get(name, 0, name.length());
+    }
+
+    /**
+     * Checks if the table has any names
+     * 
+     * @return If it's empty
+     */
+    public boolean isEmpty(){
+        return this.size==0;
+    }
+
+    /**
+     * Hashes a region of text the same no matter the case
+     * 
+     * @param text The text holding the name
+     * @param start The index of the first character
+     * @param end The index after the last character
+     * @return the hash
+     */
+    private static int hash(CharSequence text, int start, int end){
+        int hash = 0;
+        for(int i=start;i<end;i++)
+            hash = 31*hash+Character.toLowerCase(text.charAt(i));
+        return hash ^ (hash>>>16);
+    }
+
+    /**
+     * Checks if a region of text is the given name ignoring case
+     * 
+     * @param name The name to compare to
+     * @param text The text holding the region
+     * @param start The index of the first character of the region
+     * @param end The index after the last character of the region
+     * @return If they are the same ignoring case
+     */
+    static boolean equalsIgnoreCase(String name, CharSequence text, int start, int end){
+        if(name.length()!=end-start)
+            return false;
+        for(int i=0;i<name.length();i++){
+            char a = name.charAt(i);
+            char b = text.charAt(start+i);
+            if(a!=b && Character.toLowerCase(a)!=Character.toLowerCase(b))
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps a snapshot of each online player's permissions so they can be checked off the main thread
+ */
+public class PermissionCache {
+
+    // The latest snapshot of each player by their id
+    private final Map<UUID, PermissionSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the permissions of a sender, on the main thread taking a new snapshot if their permissions changed since the last one
+     * 
+     * @param sender The sender to get the permissions of
+     * @param commands The commands the permissions are checked for
+     * @return the snapshot, null if there isn't one and this isn't the main thread
+     */
+    public PermissionSnapshot get(CommandSender sender, CommandTree commands){
+        if(!(sender instanceof Player))
+            return PermissionSnapshot.ALL;
+
+        // Permissions can only change on the main thread, so check the fingerprint there in case an attachment changed since the last snapshot
+        if(Bukkit.isPrimaryThread())
+            return this.refresh((Player) sender, commands);
+        PermissionSnapshot snapshot = this.snapshots.get(((Player) sender).getUniqueId());
+        return snapshot!=null && snapshot.isFor(commands) ? snapshot : null;
+
+    }
+
+    /**
+     * Takes a new snapshot of a player's permissions if they or the commands changed since the last one (Must be called on the main thread)
+     * 
+     * @param player The player whose permissions may have changed
+     * @param commands The commands the permissions are checked for
+     * @return the up to date snapshot
+     */
+    public PermissionSnapshot refresh(Player player, CommandTree commands){
+
+        // Keep the last snapshot unless the fingerprint of the player's permissions changed, which is cheaper than checking every permission
+        long fingerprint = PermissionSnapshot.fingerprint(player);
+        PermissionSnapshot snapshot = this.snapshots.get(player.getUniqueId());
+        if(snapshot!=null && snapshot.isFor(commands) && snapshot.getFingerprint()==fingerprint)
+            return snapshot;
+        snapshot = PermissionSnapshot.of(player, commands, fingerprint);
+        this.snapshots.put(player.getUniqueId(), snapshot);
+        return snapshot;
+
+    }
+
+    /**
+     * Removes the snapshot of a player
+     * 
+     * @param id The id of the player
+     */
+    public void invalidate(UUID id){
+        this.snapshots.remove(id);
+    }
+
+    /**
+     * Takes a new snapshot of every online player for the given commands (Must be called on the main thread)
+     * 
+     * @param commands The commands the permissions are checked for
+     */
+    public void refreshAll(CommandTree commands){
+        this.snapshots.clear();
+        for(Player player : Bukkit.getOnlinePlayers())
+            this.refresh(player, commands);
+    }
+
+}
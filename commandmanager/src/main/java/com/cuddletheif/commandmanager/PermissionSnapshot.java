@@ -0,0 +1,113 @@
+package com.cuddletheif.commandmanager;
+
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+
+/**
+ * The results of every permission used by the commands for one sender as a bit set, safe to read from any thread
+ * 
+ * Each permission is a bit at the index the commands interned it at, so a permission check is a single bit test
+ */
+public class PermissionSnapshot {
+
+    // Snapshot for senders that aren't players, they have every permission
+    public static final PermissionSnapshot ALL = new PermissionSnapshot(null, new long[0], 0);
+
+    // The commands the permissions were interned by, null for every command
+    private final CommandTree commands;
+
+    // The result of each permission by its index
+    private final long[] bits;
+
+    // The fingerprint of the player's permissions when the snapshot was taken
+    private final long fingerprint;
+
+    /**
+     * Creates a snapshot with the given results
+     * 
+     * @param commands The commands the permissions were interned by
+     * @param bits The result of each permission by its index
+     * @param fingerprint The fingerprint of the player's permissions
+     */
+    private PermissionSnapshot(CommandTree commands, long[] bits, long fingerprint){
+        this.commands = commands;
+        this.bits = bits;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Takes a snapshot of the player's permissions used by the given commands (Must be called on the main thread)
+     * 
+     * @param player The player to check the permissions of
+     * @param commands The commands using the permissions
+     * @return the snapshot
+     */
+    public static PermissionSnapshot of(Player player, CommandTree commands){
+        return of(player, commands, fingerprint(player));
+    }
+
+    /**
+     * Takes a snapshot of the player's permissions used by the given commands (Must be called on the main thread)
+     * 
+     * @param player The player to check the permissions of
+     * @param commands The commands using the permissions
+     * @param fingerprint The fingerprint of the player's permissions
+     * @return the snapshot
+     */
+    static PermissionSnapshot of(Player player, CommandTree commands, long fingerprint){
+        String[] permissions = commands.getPermissions();
+        long[] bits = new long[(permissions.length+63)>>>6];
+        for(int i=0;i<permissions.length;i++)
+            if(player.hasPermission(permissions[i]))
+                bits[i>>>6] |= 1L<<i;
+        return new PermissionSnapshot(commands, bits, fingerprint);
+    }
+
+    /**
+     * Gets a fingerprint of the player's permissions that changes when any permission, attachment or their op status changes
+     * 
+     * @param player The player to get the fingerprint of
+     * @return The fingerprint of the player's permissions
+     */
+    static long fingerprint(Player player){
+
+        // Combine each permission without depending on the order
+        long fingerprint = player.isOp() ? 1 : 0;
+        for(PermissionAttachmentInfo info : player.getEffectivePermissions()){
+            long hash = info.getPermission().hashCode()*31L + (info.getValue() ? 1 : 2);
+            fingerprint += hash*0x9E3779B97F4A7C15L ^ (hash>>>29);
+        }
+        return fingerprint;
+
+    }
+
+    /**
+     * Checks if the sender had the permission at the given index
+     * 
+     * @param index The index of the permission from {@link CommandTree#getPermissions()}, -1 for no permission needed
+     * @return If the sender had the permission
+     */
+    public boolean has(int index){
+        return index<0 || this==ALL || (this.bits[index>>>6] & (1L<<index))!=0;
+    }
+
+    /**
+     * Checks if this snapshot has every permission of the given commands
+     * 
+     * @param commands The commands to check against
+     * @return If the snapshot was taken for those commands or is for every command
+     */
+    public boolean isFor(CommandTree commands){
+        return this==ALL || this.commands==commands;
+    }
+
+    /**
+     * Gets the fingerprint of the player's permissions when the snapshot was taken
+     * 
+     * @return the fingerprint, 0 for every command
+     */
+    long getFingerprint(){
+        return this.fingerprint;
+    }
+
+}
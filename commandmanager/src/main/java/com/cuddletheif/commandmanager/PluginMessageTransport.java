@@ -0,0 +1,193 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+/**
+ * Sends published commands to every other server through the proxy with the Forward message of the BungeeCord channel (Velocity supports it too)
+ * 
+ * Plugin messages travel through a player's connection, so messages sent while nobody is online wait for the next player to join
+ * and servers without players don't get them (The publisher sends all of the commands again every so often for those servers)
+ */
+public class PluginMessageTransport implements RuleTransport, PluginMessageListener, Listener {
+
+    // The channel the proxy listens on and the name of the messages forwarded by it
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "CommandManagerRules";
+
+    // Bytes of a message in each plugin message, the proxy forwards at most 32767
+    private static final int CHUNK_SIZE = 30000;
+
+    // Most chunks of one message, so a bad message can't use up the memory
+    private static final int MAX_CHUNKS = 2048;
+
+    // Most messages kept while nobody is online to send them through, and partly received
+    private static final int MAX_PENDING = 16;
+
+    // Ticks after a player joins before sending through them, so the proxy has registered the channel
+    private static final long JOIN_DELAY = 20;
+
+    private final Plugin plugin;
+
+    // The chunks of each message waiting for a player to be online (Only used on the main thread)
+    private final Queue<byte[][]> pending = new ArrayDeque<>();
+
+    // The chunks of each message being received by its id (Only used on the main thread)
+    private final Map<Long, byte[][]> partial = new LinkedHashMap<>();
+
+    // Called with each message, null until started
+    private volatile Consumer<byte[]> receiver;
+
+    /**
+     * Creates a transport through the proxy, able to send right away
+     * 
+     * @param plugin The plugin sending the messages
+     */
+    public PluginMessageTransport(Plugin plugin){
+        this.plugin = plugin;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver){
+        this.receiver = receiver;
+        this.plugin.getServer().getMessenger().registerIncomingPluginChannel(this.plugin, CHANNEL, this);
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException{
+
+        // Split the message into chunks the proxy can forward, each with the id of the message and its place
+        long id = ThreadLocalRandom.current().nextLong();
+        int count = Math.max(1, (message.length+CHUNK_SIZE-1)/CHUNK_SIZE);
+        if(count>MAX_CHUNKS)
+            throw new IOException("The commands are too big to send through the proxy ("+message.length+" bytes compressed), use the file transport instead");
+        byte[][] chunks = new byte[count][];
+        for(int i=0;i<count;i++){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE+64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            int start = i*CHUNK_SIZE;
+            int length = Math.min(CHUNK_SIZE, message.length-start);
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(length+16);
+            out.writeLong(id);
+            out.writeInt(i);
+            out.writeInt(count);
+            out.write(message, start, length);
+            chunks[i] = bytes.toByteArray();
+        }
+
+        // Send them on the main thread through any online player
+        this.plugin.getServer().getScheduler().runTask(this.plugin, () -> {
+            if(this.pending.size()>=MAX_PENDING)
+                this.pending.poll();
+            this.pending.add(chunks);
+            this.flush();
+        });
+
+    }
+
+    @Override
+    public void close(){
+        this.receiver = null;
+        this.pending.clear();
+        this.partial.clear();
+        this.plugin.getServer().getMessenger().unregisterIncomingPluginChannel(this.plugin, CHANNEL);
+        this.plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(this.plugin, CHANNEL);
+        HandlerList.unregisterAll(this);
+    }
+
+    /**
+     * When a player joins send the messages waiting for someone to be online
+     * 
+     * @param e the event triggered
+     */
+    @EventHandler (priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent e){
+        if(!this.pending.isEmpty())
+            this.plugin.getServer().getScheduler().runTaskLater(this.plugin, this::flush, JOIN_DELAY);
+    }
+
+    /**
+     * Sends the waiting messages through an online player, if there is one
+     */
+    private void flush(){
+        Iterator<? extends Player> players = this.plugin.getServer().getOnlinePlayers().iterator();
+        if(!players.hasNext())
+            return;
+        Player player = players.next();
+        while(!this.pending.isEmpty())
+            for(byte[] chunk : this.pending.poll())
+                player.sendPluginMessage(this.plugin, CHANNEL, chunk);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] bytes){
+        Consumer<byte[]> receiver = this.receiver;
+        if(!channel.equals(CHANNEL) || receiver==null)
+            return;
+        try{
+
+            // Only forwarded chunks of published commands
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if(!in.readUTF().equals(SUBCHANNEL))
+                return;
+            int length = in.readUnsignedShort()-16;
+            long id = in.readLong();
+            int index = in.readInt();
+            int count = in.readInt();
+            if(length<0 || count<1 || count>MAX_CHUNKS || index<0 || index>=count)
+                return;
+            byte[] chunk = new byte[length];
+            in.readFully(chunk);
+
+            // Keep the chunk until the whole message is here, forgetting the oldest messages that never finished
+            byte[][] chunks = this.partial.get(id);
+            if(chunks==null){
+                if(this.partial.size()>=MAX_PENDING)
+                    this.partial.remove(this.partial.keySet().iterator().next());
+                chunks = new byte[count][];
+                this.partial.put(id, chunks);
+            }
+            if(chunks.length!=count)
+                return;
+            chunks[index] = chunk;
+            for(byte[] part : chunks)
+                if(part==null)
+                    return;
+
+            // Pass on the whole message
+            this.partial.remove(id);
+            ByteArrayOutputStream message = new ByteArrayOutputStream(count*CHUNK_SIZE);
+            for(byte[] part : chunks)
+                message.write(part);
+            receiver.accept(message.toByteArray());
+
+        } catch (IOException e) {
+            // Not a chunk of published commands
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Sorted array of command names for finding every command starting with a prefix by binary search
+ */
+public class PrefixIndex {
+
+    // Shared index for commands without sub commands
+    static final PrefixIndex EMPTY = new PrefixIndex(CommandTree.NO_COMMANDS);
+
+    // Every lower cased name in sorted order
+    private final String[] names;
+
+    // The command of each name at the same position
+    private final CommandData[] commands;
+
+    /**
+     * Indexes every name of the given commands
+     * 
+     * @param commands The commands to index
+     */
+    public PrefixIndex(CommandData[] commands){
+
+        // Pair each lower cased name with its command
+        int count = 0;
+        for(CommandData cmd : commands)
+            count += cmd.getNames().length-cmd.getMatchers().length;
+        Entry[] entries = new Entry[count];
+        int i = 0;
+        for(int order=0;order<commands.length;order++)
+            for(String name : commands[order].getNames())
+                if(!ArgumentMatcher.isMatcher(name))
+                    entries[i++] = new Entry(name.toLowerCase(Locale.ROOT), order, commands[order]);
+
+        // Sort by name keeping the config order for equal names
+        Arrays.sort(entries);
+        this.names = new String[count];
+        this.commands = new CommandData[count];
+        for(i=0;i<count;i++){
+            this.names[i] = entries[i].name;
+            this.commands[i] = entries[i].command;
+        }
+
+    }
+
+    /**
+     * Gets the position of the first name starting with the prefix in the given region of some text
+     * 
+     * @param text The text holding the prefix
+     * @param start The index of the first character of the prefix
+     * @param end The index after the last character of the prefix
+     * @return The position of the first name, check each from there with {@link #matches(int, CharSequence, int, int)}
+     */
+    public int first(CharSequence text, int start, int end){
+
+        // Binary search for the lowest name that is not less than the prefix
+        int low = 0;
+        int high = this.names.length;
+        while(low<high){
+            int mid = (low+high)>>>1;
+            if(compare(this.names[mid], text, start, end)<0)
+                low = mid+1;
+            else
+                high = mid;
+        }
+        return low;
+
+    }
+
+    /**
+     * Checks if the name at the position starts with the prefix in the given region of some text, ignoring case
+     * 
+     * @param position The position of the name
+     * @param text The text holding the prefix
+     * @param start The index of the first character of the prefix
+     * @param end The index after the last character of the prefix
+     * @return If there is a name at the position and it starts with the prefix
+     */
+    public boolean matches(int position, CharSequence text, int start, int end){
+        if(position>=this.names.length)
+            return false;
+        String name = this.names[position];
+        if(name.length()<end-start)
+            return false;
+        for(int i=start;i<end;i++)
+            if(name.charAt(i-start)!=Character.toLowerCase(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Compares a name to a region of some text like {@link String#compareTo(String)}, ignoring the case of the text
+     * 
+     * @param name The lower cased name
+     * @param text The text holding the region
+     * @param start The index of the first character of the region
+     * @param end The index after the last character of the region
+     * @return Less than 0 if the name is first, 0 if they're the same and more than 0 if the region is first
+     */
+    private static int compare(String name, CharSequence text, int start, int end){
+        int length = Math.min(name.length(), end-start);
+        for(int i=0;i<length;i++){
+            int compare = name.charAt(i)-Character.toLowerCase(text.charAt(start+i));
+            if(compare!=0)
+                return compare;
+        }
+        return name.length()-(end-start);
+    }
+
+    /**
+     * Gets the command of the name at the position
+     * 
+     * @param position The position of the name
+     * @return The command with that name
+     */
+    public CommandData getCommand(int position){
+        return this.commands[position];
+    }
+
+    /**
+     * A name and its command while sorting
+     */
+    private static class Entry implements Comparable<Entry>{
+
+        private final String name;
+        private final int order;
+        private final CommandData command;
+
+        private Entry(String name, int order, CommandData command){
+            this.name = name;
+            this.order = order;
+            this.command = command;
+        }
+
+        @Override
+        public int compareTo(Entry other){
+            int compare = this.name.compareTo(other.name);
+            return compare!=0 ? compare : Integer.compare(this.order, other.order);
+        }
+
+    }
+
+}
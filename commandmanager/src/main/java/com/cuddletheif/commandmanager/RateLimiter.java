@@ -0,0 +1,215 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+/**
+ * Enforces the cooldown and max-per-minute of commands for each player without locking
+ */
+public class RateLimiter {
+
+    // The message sent to a player who has to wait unless the config has another
+    private static final String DEFAULT_MESSAGE = "You must wait %seconds% seconds before using that command again";
+
+    // The buckets of each player for each command they used
+    private final Map<UUID, Map<CommandData, Bucket>> buckets = new ConcurrentHashMap<>();
+
+    // Sent to a player who has to wait before using a command again, %seconds% being the seconds left (Empty to send nothing)
+    private volatile String message = DEFAULT_MESSAGE;
+
+    /**
+     * Loads the settings of the limits
+     * 
+     * @param section The limits section of the config (May be null for the defaults)
+     */
+    public void configure(ConfigurationSection section){
+        this.message = section!=null ? section.getString("message", DEFAULT_MESSAGE) : DEFAULT_MESSAGE;
+    }
+
+    /**
+     * Gets the message sent to a player who has to wait before using a command again
+     * 
+     * @param wait The nanoseconds until the command can be used
+     * @return the message with the seconds filled in, empty to send nothing
+     */
+    public String getMessage(long wait){
+        return this.message.replace("%seconds%", String.format(Locale.ROOT, "%.1f", wait/1_000_000_000.0));
+    }
+
+    /**
+     * Takes a use of every limited command along the given command for the player if all of them allow it
+     * 
+     * @param player The player running the command
+     * @param perms The permissions of the player
+     * @param commands The commands the command is checked against
+     * @param tokens The tokens of the command
+     * @return 0 if the command can run, otherwise the nanoseconds until it can
+     */
+    public long acquire(Player player, PermissionSnapshot perms, CommandTree commands, CommandTokens tokens){
+
+        // Check every limited command before taking a use of any, so one that has to wait doesn't use up the others
+        long now = System.nanoTime();
+        long wait = this.walk(player, perms, commands, tokens, now, false);
+        if(wait!=0)
+            return Math.max(wait, 0);
+        return Math.max(this.walk(player, perms, commands, tokens, now, true), 0);
+
+    }
+
+    /**
+     * Checks or takes a use of every limited command along the given command for the player
+     * 
+     * @param player The player running the command
+     * @param perms The permissions of the player
+     * @param commands The commands the command is checked against
+     * @param tokens The tokens of the command
+     * @param now The current time in nanoseconds
+     * @param take If a use should be taken of each command instead of only checking them
+     * @return The longest nanoseconds until a command can be used (0 if all can), -1 if no limited command applies to the player
+     */
+    private long walk(Player player, PermissionSnapshot perms, CommandTree commands, CommandTokens tokens, long now, boolean take){
+
+        // Check every command matched along the way
+        long wait = -1;
+        Map<CommandData, Bucket> buckets = this.buckets.get(player.getUniqueId());
+        CommandAutomaton.State state = commands.getRoot();
+        for(int i=0;i<tokens.size() && state!=null;i++){
+            state = state.next(tokens, i);
+            if(state!=null)
+                for(CommandData cmd : state.getCommands()){
+
+                    // Check this command's limits if they apply to the player, only making a bucket when a use is taken
+                    if(cmd.isLimited() && cmd.hasPathPermission(perms) && !cmd.canBypassLimits(perms) && cmd.isConditionMet(player, perms, tokens)){
+                        if(take && buckets==null)
+                            buckets = this.buckets.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>());
+                        Bucket bucket = take ? buckets.computeIfAbsent(cmd, k -> new Bucket()) : buckets!=null ? buckets.get(cmd) : null;
+                        wait = Math.max(wait, bucket==null ? 0 : take ? bucket.acquire(cmd, now) : bucket.check(cmd, now));
+                    }
+
+                }
+        }
+        return wait;
+
+    }
+
+    /**
+     * Forgets the buckets of a player
+     * 
+     * @param id The id of the player
+     */
+    public void forget(UUID id){
+        this.buckets.remove(id);
+    }
+
+    /**
+     * Moves the buckets of the commands still there after a reload to the commands replacing them, forgetting the ones of removed commands
+     * 
+     * @param kept The new command of each old command still there
+     */
+    public void carryOver(Map<CommandData, CommandData> kept){
+        for(Map<CommandData, Bucket> buckets : this.buckets.values())
+            for(CommandData cmd : new ArrayList<>(buckets.keySet())){
+                CommandData replacement = kept.get(cmd);
+                if(replacement==cmd)
+                    continue;
+                Bucket bucket = buckets.remove(cmd);
+                if(replacement!=null && bucket!=null)
+                    buckets.putIfAbsent(replacement, bucket);
+            }
+    }
+
+    /**
+     * The uses of one command by one player
+     */
+    private static class Bucket {
+
+        // The current state, replaced as a whole on each use
+        private final AtomicReference<State> state = new AtomicReference<>(State.NEW);
+
+        /**
+         * Checks if the limits of the command allow a use without taking it
+         * 
+         * @param cmd The command being used
+         * @param now The current time in nanoseconds
+         * @return 0 if a use can be taken, otherwise the nanoseconds until it can be
+         */
+        private long check(CommandData cmd, long now){
+            return wait(this.state.get(), cmd, now);
+        }
+
+        /**
+         * Takes a use of the command if its limits allow it
+         * 
+         * @param cmd The command being used
+         * @param now The current time in nanoseconds
+         * @return 0 if the use was taken, otherwise the nanoseconds until it can be
+         */
+        private long acquire(CommandData cmd, long now){
+
+            long interval = cmd.getMaxPerMinute()>0 ? 60_000_000_000L/cmd.getMaxPerMinute() : 0;
+            for(;;){
+
+                // Check the limits first
+                State current = this.state.get();
+                long wait = wait(current, cmd, now);
+                if(wait>0)
+                    return wait;
+
+                // Take the use unless another thread did first
+                long fullBy = interval>0 ? Math.max(current==State.NEW ? now : current.fullBy, now)+interval : 0;
+                if(this.state.compareAndSet(current, new State(now, fullBy)))
+                    return 0;
+
+            }
+
+        }
+
+        /**
+         * Gets how long until the limits of a command allow another use
+         * 
+         * @param current The state of the bucket
+         * @param cmd The command being used
+         * @param now The current time in nanoseconds
+         * @return 0 if a use can be taken, otherwise the nanoseconds until it can be
+         */
+        private static long wait(State current, CommandData cmd, long now){
+
+            // Check the cooldown since the last use and the bucket (as the time it is full by)
+            if(current==State.NEW)
+                return 0;
+            long interval = cmd.getMaxPerMinute()>0 ? 60_000_000_000L/cmd.getMaxPerMinute() : 0;
+            long wait = Math.max(current.lastUse+cmd.getCooldown()-now, 0);
+            if(interval>0)
+                wait = Math.max(wait, current.fullBy-interval*Math.max(0, cmd.getMaxPerMinute()-1)-now);
+            return Math.max(wait, 0);
+
+        }
+
+    }
+
+    /**
+     * When a command was last used and when its bucket will be full again
+     */
+    private static class State {
+
+        // The state of a bucket that was never used
+        private static final State NEW = new State(0, 0);
+
+        private final long lastUse;
+        private final long fullBy;
+
+        private State(long lastUse, long fullBy){
+            this.lastUse = lastUse;
+            this.fullBy = fullBy;
+        }
+
+    }
+
+}
@@ -0,0 +1,464 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Shares compiled commands across a network of servers, one server publishes its commands and the others apply them in place of their own
+ * 
+ * Each version of the commands is sent as a compressed snapshot of only the top commands that changed since the version before
+ * and where the others were in that version, which receivers apply on top of it. Now and then every command is sent again for servers that missed a version.
+ * Every message is signed with a secret the servers share and receivers ignore any message not signed with it,
+ * since received commands can run commands as the console of every receiver.
+ */
+public class RuleDistributor {
+
+    /**
+     * What this server does with the commands of the network
+     */
+    public enum Role {
+        OFF,
+        PUBLISH,
+        RECEIVE
+    }
+
+    // Start of every message
+    private static final int MAGIC = 0x434D4452;
+
+    // Version of the message layout, messages of other versions are ignored
+    private static final int FORMAT = 1;
+
+    // Bytes before the compressed commands: the magic, format, version and the version the change is on top of (0 for every command)
+    private static final int HEADER_SIZE = 24;
+
+    // Bytes of the signature at the end of signed messages
+    private static final int SIGNATURE_SIZE = 32;
+
+    // Most bytes the commands of a message can take uncompressed, so a bad message can't use up the memory
+    private static final int MAX_SIZE = 256*1024*1024;
+
+    // What this server does
+    private final Role role;
+
+    // Carries the messages
+    private final RuleTransport transport;
+
+    // The key of the signatures
+    private final byte[] secret;
+
+    // The last commands received, kept to start with them after a restart
+    private final Path cache;
+
+    private final Logger logger;
+
+    // Called on the distributor thread with newly received commands and their version
+    private final ObjLongConsumer<CommandTree> onReceive;
+
+    // Encodes and decodes the messages one at a time in the order they're sent and received
+    private final ScheduledExecutorService executor;
+
+    // The version of the commands last published or received (Only changed on the distributor thread)
+    private volatile long version;
+
+    // The hashes of the top commands last published and the commands themselves to send them all again (Publishers only)
+    private long[] publishedHashes;
+    private CommandTree published;
+
+    // The snapshot of the commands last received that the next change is applied on top of (Receivers only)
+    private TreeSnapshot received;
+
+    /**
+     * Creates a distributor with the given role
+     * 
+     * @param role What this server does with the commands of the network
+     * @param transport Carries the messages to and from the other servers
+     * @param secret The secret every server of the network signs their messages with
+     * @param cache The file to keep the last received commands in
+     * @param logger The logger to tell of received commands and errors
+     * @param onReceive Called with newly received commands and their version, on the distributor thread
+     * @throws IllegalArgumentException If the secret is empty
+     */
+    public RuleDistributor(Role role, RuleTransport transport, String secret, Path cache, Logger logger, ObjLongConsumer<CommandTree> onReceive){
+        if(secret==null || secret.isEmpty())
+            throw new IllegalArgumentException("The network secret must be set");
+        this.role = role;
+        this.transport = transport;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.cache = cache;
+        this.logger = logger;
+        this.onReceive = onReceive;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CommandManager rule distributor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the role set in the network section of the config
+     * 
+     * @param section The network section (May be null)
+     * @return The role, off if the section is missing or has an unknown role
+     */
+    public static Role getRole(ConfigurationSection section){
+        String role = section!=null ? section.getString("role", "off") : "off";
+        switch(role.toLowerCase(Locale.ROOT)){
+            case "publish": return Role.PUBLISH;
+            case "receive": return Role.RECEIVE;
+            default: return Role.OFF;
+        }
+    }
+
+    /**
+     * Gets what this server does with the commands of the network
+     * 
+     * @return the role
+     */
+    public Role getRole(){
+        return this.role;
+    }
+
+    /**
+     * Gets the version of the commands last published or received
+     * 
+     * @return the version, 0 if there are none yet
+     */
+    public long getVersion(){
+        return this.version;
+    }
+
+    /**
+     * Reads the commands last received before a restart so the server starts with them (Receivers only, call before starting)
+     * 
+     * @return The commands, null if none were received before or they can't be read
+     */
+    public CommandTree readCache(){
+        try{
+            return this.decode(Files.readAllBytes(this.cache));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | InvalidConfigurationException e) {
+            this.logger.log(Level.WARNING, "Could not read the commands last received from the network, using the config's until new ones are received: "+e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts receiving commands and sending all of the commands again every so often, depending on the role
+     * 
+     * @param republishSeconds Seconds between sending all of the published commands again, 0 to only send changes
+     * @throws IOException If the transport couldn't start receiving
+     */
+    public void start(long republishSeconds) throws IOException{
+        if(this.role==Role.RECEIVE)
+            this.transport.start(message -> this.execute(() -> this.receive(message)));
+        else if(this.role==Role.PUBLISH && republishSeconds>0)
+            this.executor.scheduleWithFixedDelay(this::republish, republishSeconds, republishSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops sending and receiving commands
+     */
+    public void close(){
+        this.executor.shutdownNow();
+        this.transport.close();
+    }
+
+    /**
+     * Sends the top commands that changed since the last published version to the other servers as a new version (Publishers only, from any thread)
+     * 
+     * @param commands The commands now in use
+     */
+    public void publish(CommandTree commands){
+        if(this.role==Role.PUBLISH)
+            this.execute(() -> {
+                try{
+                    this.send(commands);
+                } catch (IOException e) {
+                    this.logger.log(Level.WARNING, "Could not send the commands to the network", e);
+                }
+            });
+    }
+
+    /**
+     * Runs a task on the distributor thread unless it was closed
+     * 
+     * @param task The task
+     */
+    private void execute(Runnable task){
+        try{
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Sends the top commands that changed since the last published version, or all of them if nothing was published yet
+     * 
+     * @param commands The commands now in use
+     * @throws IOException If the message couldn't be written or sent
+     */
+    private void send(CommandTree commands) throws IOException{
+
+        // Nothing to send if no top command changed
+        long[] hashes = commands.getHashes();
+        if(Arrays.equals(hashes, this.publishedHashes))
+            return;
+
+        // Find where each top command was in the published version by its hash, sending only the ones that weren't published
+        byte[] message;
+        long version = Math.max(this.version+1, System.currentTimeMillis());
+        if(this.publishedHashes!=null){
+            Map<Long, Queue<Integer>> unchanged = new HashMap<>(this.publishedHashes.length*2);
+            for(int i=0;i<this.publishedHashes.length;i++)
+                unchanged.computeIfAbsent(this.publishedHashes[i], hash -> new ArrayDeque<>(1)).add(i);
+            int[] order = new int[hashes.length];
+            List<CommandData> changed = new ArrayList<>();
+            List<Long> changedHashes = new ArrayList<>();
+            for(int i=0;i<hashes.length;i++){
+                Queue<Integer> rows = unchanged.get(hashes[i]);
+                if(rows!=null && !rows.isEmpty())
+                    order[i] = rows.poll();
+                else{
+                    order[i] = -1-changed.size();
+                    changed.add(commands.getCommands()[i]);
+                    changedHashes.add(hashes[i]);
+                }
+            }
+            TreeSnapshot snapshot = new TreeSnapshot(changed.toArray(new CommandData[0]), changedHashes.stream().mapToLong(Long::longValue).toArray(), new YamlConfiguration());
+            message = this.encode(version, this.version, order, snapshot);
+            this.logger.info("Sending version "+version+" of the commands to the network ("+changed.size()+" of "+hashes.length+" top commands changed, "+message.length+" bytes)");
+        }
+        else
+            message = this.encode(version, 0, new int[0], new TreeSnapshot(commands, new YamlConfiguration()));
+        this.transport.send(message);
+        this.version = version;
+        this.publishedHashes = hashes;
+        this.published = commands;
+
+    }
+
+    /**
+     * Sends every published command again for servers that missed a version
+     */
+    private void republish(){
+        try{
+            if(this.published!=null)
+                this.transport.send(this.encode(this.version, 0, new int[0], new TreeSnapshot(this.published, new YamlConfiguration())));
+        } catch (IOException | RuntimeException e) {
+            this.logger.log(Level.WARNING, "Could not send the commands to the network again", e);
+        }
+    }
+
+    /**
+     * Applies a received message if it has newer commands
+     * 
+     * @param message The message
+     */
+    private void receive(byte[] message){
+        try{
+            CommandTree commands = this.decode(message);
+            if(commands==null)
+                return;
+
+            // Keep them for the next start
+            Path temp = Files.createTempFile(this.cache.toAbsolutePath().getParent(), this.cache.getFileName().toString(), ".tmp");
+            try{
+                Files.write(temp, this.encode(this.version, 0, new int[0], this.received));
+                Files.move(temp, this.cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            this.onReceive.accept(commands, this.version);
+
+        } catch (IOException | InvalidConfigurationException e) {
+            this.logger.log(Level.WARNING, "Could not apply the commands received from the network: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a message
+     * 
+     * @param version The version of the commands
+     * @param base The version the change is on top of, 0 for a message with every command
+     * @param order Where each top command is in config order (see {@link TreeSnapshot#merge}), empty for a message with every command
+     * @param snapshot The top commands in the message
+     * @return The message
+     * @throws IOException If the message couldn't be written
+     */
+    private byte[] encode(long version, long base, int[] order, TreeSnapshot snapshot) throws IOException{
+
+        // The header then the compressed order and commands
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(version);
+        out.writeLong(base);
+        try(DataOutputStream compressed = new DataOutputStream(new GZIPOutputStream(bytes))){
+            compressed.writeInt(order.length);
+            int next = 0;
+            for(int row : order){
+
+                // Unchanged top commands as the distance from the row after the last one, so long runs of them are all 0 and compress away
+                if(row>=0){
+                    compressed.writeInt((row-next)<<1);
+                    next = row+1;
+                }
+                else
+                    compressed.writeInt(((-1-row)<<1)|1);
+
+            }
+            compressed.write(snapshot.toBytes(version));
+        }
+
+        // Sign everything before the signature
+        bytes.write(this.sign(bytes.toByteArray(), bytes.size()));
+        return bytes.toByteArray();
+
+    }
+
+    /**
+     * Reads a message, keeping its commands as the ones the next change is applied on top of
+     * 
+     * @param message The message
+     * @return The commands, null if they aren't newer than the last received or are a change on top of a version this server doesn't have
+     * @throws IOException If the message is damaged or wasn't signed with the secret
+     * @throws InvalidConfigurationException If the commands in the message are invalid
+     */
+    private CommandTree decode(byte[] message) throws IOException, InvalidConfigurationException{
+
+        // Check the signature before anything else, unsigned messages are never applied
+        int end = message.length-SIGNATURE_SIZE;
+        if(end<HEADER_SIZE)
+            throw new IOException("The message is too short");
+        if(!MessageDigest.isEqual(this.sign(message, end), Arrays.copyOfRange(message, end, message.length)))
+            throw new IOException("The message wasn't signed with this server's secret");
+
+        // Only newer commands, and only changes on top of the version this server has
+        ByteBuffer header = ByteBuffer.wrap(message, 0, HEADER_SIZE);
+        if(header.getInt()!=MAGIC || header.getInt()!=FORMAT)
+            throw new IOException("The message isn't from this version of the plugin");
+        long version = header.getLong();
+        long base = header.getLong();
+        if(version<=this.version)
+            return null;
+        if(base!=0 && (base!=this.version || this.received==null)){
+            this.logger.info("Waiting for the network to send every command again, version "+version+" of the commands is a change on top of version "+base+" but this server has version "+this.version);
+            return null;
+        }
+
+        // Read the order and the commands
+        ByteBuffer buffer = ByteBuffer.wrap(inflate(message, HEADER_SIZE, end-HEADER_SIZE));
+        try{
+            int count = buffer.getInt();
+            if(count<0 || count>buffer.remaining()/4)
+                throw new IOException("The message is damaged");
+            int[] order = new int[count];
+            int next = 0;
+            for(int i=0;i<count;i++){
+                int row = buffer.getInt();
+                if((row&1)!=0)
+                    order[i] = -1-(row>>>1);
+                else{
+                    order[i] = next+(row>>1);
+                    if(order[i]<0)
+                        throw new IOException("The message is damaged");
+                    next = order[i]+1;
+                }
+            }
+            TreeSnapshot snapshot = TreeSnapshot.read(buffer.slice(), version, "The message");
+            if(snapshot==null)
+                throw new IOException("The message isn't from this version of the plugin");
+
+            // Every command, or the changed commands on top of the last ones received which become the base of the next change
+            CommandTree commands = base==0 ? snapshot.getCommands() : snapshot.merge(order, this.received);
+            if(commands==null)
+                throw new IOException("The message is missing some of the commands");
+            this.received = base==0 ? snapshot : new TreeSnapshot(commands, new YamlConfiguration());
+            this.version = version;
+            return commands;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The message is damaged", e);
+        }
+
+    }
+
+    /**
+     * Decompresses part of a message
+     * 
+     * @param message The message
+     * @param offset The start of the compressed bytes
+     * @param length The number of compressed bytes
+     * @return The decompressed bytes
+     * @throws IOException If the bytes aren't valid or are too big
+     */
+    private static byte[] inflate(byte[] message, int offset, int length) throws IOException{
+        try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(message, offset, length))){
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length*4);
+            byte[] buffer = new byte[8192];
+            for(int read=in.read(buffer);read!=-1;read=in.read(buffer)){
+                if(out.size()+read>MAX_SIZE)
+                    throw new IOException("The message is too big");
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Signs the start of a message with the secret
+     * 
+     * @param message The message
+     * @param length The number of bytes to sign
+     * @return The HMAC-SHA256 of the bytes
+     */
+    private byte[] sign(byte[] message, int length){
+        try{
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+            mac.update(message, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 isn't available", e);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Carries the commands published by one server to the other servers of a network
+ * 
+ * Messages are opaque to the transport, which only has to deliver them whole and in the order they were sent
+ */
+public interface RuleTransport {
+
+    /**
+     * Starts passing on the messages sent by other servers
+     * 
+     * @param receiver Called with each message, on any thread
+     * @throws IOException If the transport couldn't start receiving
+     */
+    void start(Consumer<byte[]> receiver) throws IOException;
+
+    /**
+     * Sends a message to every other server
+     * 
+     * @param message The message to send (Called off the main thread)
+     * @throws IOException If the message couldn't be sent
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Stops sending and receiving messages
+     */
+    void close();
+
+}
@@ -0,0 +1,675 @@
+package com.cuddletheif.commandmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.zip.CRC32;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Compiled commands stored as flat arrays in a binary file so they can be read back on startup without parsing the YAML
+ * 
+ * Commands are stored breadth first so the sub commands of each command are next to each other, each command only needs the offset of its first sub command.
+ * The file is keyed by a hash of the config files it was compiled from and is only used while they haven't changed.
+ */
+public class TreeSnapshot {
+
+    // Start of every snapshot file
+    private static final int MAGIC = 0x434D4453;
+
+    // Version of the file layout and what is stored in it, snapshots of other versions are ignored
+    private static final int VERSION = 3;
+
+    // Every distinct string of the commands
+    private final String[] strings;
+
+    // The names of command i are the strings at nameStrings[nameStarts[i]] up to nameStrings[nameStarts[i+1]]
+    private final int[] nameStarts;
+    private final int[] nameStrings;
+
+    // The new commands of command i are the strings at commandStrings[commandStarts[i]] up to commandStrings[commandStarts[i+1]]
+    private final int[] commandStarts;
+    private final int[] commandStrings;
+
+    // The sub commands of command i are the commands childStarts[i] up to childStarts[i+1], the top commands are the commands before childStarts[0]
+    private final int[] childStarts;
+
+    // The flags of each command with the flags of their parents applied
+    private final short[] flags;
+
+    // The string of the permission, description, bypass permission and when expression of each command (-1 for none)
+    private final int[] permissions;
+    private final int[] descriptions;
+    private final int[] bypassPermissions;
+    private final int[] whens;
+
+    // The limits of each command
+    private final long[] queueCooldowns;
+    private final long[] cooldowns;
+    private final int[] maxPerMinute;
+
+    // The hash of the section of each top command
+    private final long[] hashes;
+
+    // Everything in the config except the commands section as YAML
+    private final String settings;
+
+    /**
+     * Takes a snapshot of compiled commands
+     * 
+     * @param tree The commands
+     * @param config The config the commands were compiled with, to keep its other settings
+     */
+    public TreeSnapshot(CommandTree tree, ConfigurationSection config){
+        this(tree.getCommands(), tree.getHashes(), config);
+    }
+
+    /**
+     * Takes a snapshot of some top commands, like the ones that changed since the last snapshot
+     * 
+     * @param commands The top commands
+     * @param hashes The hash of the section of each top command
+     * @param config The config the commands were compiled with, to keep its other settings
+     */
+    TreeSnapshot(CommandData[] commands, long[] hashes, ConfigurationSection config){
+
+        // List every command breadth first
+        List<CommandData> nodes = new ArrayList<>();
+        Queue<CommandData> queue = new ArrayDeque<>(Arrays.asList(commands));
+        while(!queue.isEmpty()){
+            CommandData cmd = queue.poll();
+            nodes.add(cmd);
+            queue.addAll(Arrays.asList(cmd.getSubCommands()));
+        }
+
+        // Store each command as a row of the arrays
+        int count = nodes.size();
+        Map<String, Integer> strings = new HashMap<>();
+        List<Integer> nameStrings = new ArrayList<>();
+        List<Integer> commandStrings = new ArrayList<>();
+        this.nameStarts = new int[count+1];
+        this.commandStarts = new int[count+1];
+        this.childStarts = new int[count+1];
+        this.flags = new short[count];
+        this.permissions = new int[count];
+        this.descriptions = new int[count];
+        this.bypassPermissions = new int[count];
+        this.whens = new int[count];
+        this.queueCooldowns = new long[count];
+        this.cooldowns = new long[count];
+        this.maxPerMinute = new int[count];
+        int child = commands.length;
+        for(int i=0;i<count;i++){
+            CommandData cmd = nodes.get(i);
+            this.nameStarts[i] = nameStrings.size();
+            for(String name : cmd.getNames())
+                nameStrings.add(intern(strings, name));
+            this.commandStarts[i] = commandStrings.size();
+            for(CommandTemplate command : cmd.getNewCommands())
+                commandStrings.add(intern(strings, command.getCommand()));
+            this.childStarts[i] = child;
+            child += cmd.getSubCommands().length;
+            this.flags[i] = cmd.getFlags();
+            this.permissions[i] = intern(strings, cmd.getPermission());
+            this.descriptions[i] = intern(strings, cmd.getDescription());
+            this.bypassPermissions[i] = intern(strings, cmd.getBypassPermission());
+            this.whens[i] = intern(strings, cmd.getWhen());
+            this.queueCooldowns[i] = cmd.getQueueCooldown();
+            this.cooldowns[i] = cmd.getCooldown();
+            this.maxPerMinute[i] = cmd.getMaxPerMinute();
+        }
+        this.nameStarts[count] = nameStrings.size();
+        this.commandStarts[count] = commandStrings.size();
+        this.childStarts[count] = child;
+        this.nameStrings = nameStrings.stream().mapToInt(Integer::intValue).toArray();
+        this.commandStrings = commandStrings.stream().mapToInt(Integer::intValue).toArray();
+        this.strings = new String[strings.size()];
+        for(Map.Entry<String, Integer> string : strings.entrySet())
+            this.strings[string.getValue()] = string.getKey();
+        this.hashes = hashes.clone();
+
+        // Keep the other settings of the config
+        YamlConfiguration settings = new YamlConfiguration();
+        for(String key : config.getKeys(false))
+            if(!key.equals("commands"))
+                settings.set(key, config.get(key));
+        this.settings = settings.saveToString();
+
+    }
+
+    /**
+     * Reads a snapshot from a buffer
+     * 
+     * @param buffer The buffer positioned after the key of the snapshot
+     * @throws BufferUnderflowException If the buffer ends early
+     */
+    private TreeSnapshot(ByteBuffer buffer){
+        this.strings = new String[readLength(buffer, 4)];
+        for(int i=0;i<this.strings.length;i++)
+            this.strings[i] = new String(readBytes(buffer), StandardCharsets.UTF_8);
+        this.nameStarts = readInts(buffer);
+        this.nameStrings = readInts(buffer);
+        this.commandStarts = readInts(buffer);
+        this.commandStrings = readInts(buffer);
+        this.childStarts = readInts(buffer);
+        this.flags = new short[readLength(buffer, 2)];
+        buffer.asShortBuffer().get(this.flags);
+        buffer.position(buffer.position()+2*this.flags.length);
+        this.permissions = readInts(buffer);
+        this.descriptions = readInts(buffer);
+        this.bypassPermissions = readInts(buffer);
+        this.whens = readInts(buffer);
+        this.queueCooldowns = readLongs(buffer);
+        this.cooldowns = readLongs(buffer);
+        this.maxPerMinute = readInts(buffer);
+        this.hashes = readLongs(buffer);
+        this.settings = new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that every offset and string index points inside its array
+     * 
+     * @return If the snapshot is intact
+     */
+    private boolean isIntact(){
+        int count = this.flags.length;
+        if(this.nameStarts.length!=count+1 || this.commandStarts.length!=count+1 || this.childStarts.length!=count+1
+            || this.permissions.length!=count || this.descriptions.length!=count || this.bypassPermissions.length!=count || this.whens.length!=count
+            || this.queueCooldowns.length!=count || this.cooldowns.length!=count || this.maxPerMinute.length!=count)
+            return false;
+        if(!isRuns(this.nameStarts, this.nameStrings.length) || !isRuns(this.commandStarts, this.commandStrings.length) || !isRuns(this.childStarts, count))
+            return false;
+        for(int i=0;i<count;i++)
+            if(this.childStarts[i]<=i || this.nameStarts[i]==this.nameStarts[i+1])
+                return false;
+        return this.childStarts[0]==this.hashes.length
+            && isStrings(this.nameStrings, false) && isStrings(this.commandStrings, false)
+            && isStrings(this.permissions, true) && isStrings(this.descriptions, true) && isStrings(this.bypassPermissions, true) && isStrings(this.whens, true);
+    }
+
+    /**
+     * Checks that offsets split an array into runs
+     * 
+     * @param starts The start of each run followed by the end of the last run
+     * @param length The length of the array
+     * @return If the offsets only go up and end at the length of the array
+     */
+    private static boolean isRuns(int[] starts, int length){
+        for(int i=1;i<starts.length;i++)
+            if(starts[i]<starts[i-1])
+                return false;
+        return starts[0]>=0 && starts[starts.length-1]==length;
+    }
+
+    /**
+     * Checks that every index is in the string table
+     * 
+     * @param indices The string indices
+     * @param nullable If -1 is allowed for null
+     * @return If every index is in the string table
+     */
+    private boolean isStrings(int[] indices, boolean nullable){
+        for(int index : indices)
+            if(index>=this.strings.length || index<(nullable ? -1 : 0))
+                return false;
+        return true;
+    }
+
+    /**
+     * Gets the index of a string in the string table, adding it if it's new
+     * 
+     * @param strings The index of each string so far
+     * @param string The string
+     * @return The index of the string, -1 for null
+     */
+    private static int intern(Map<String, Integer> strings, String string){
+        return string==null ? -1 : strings.computeIfAbsent(string, k -> strings.size());
+    }
+
+    /**
+     * Hashes the raw contents of the config and every command file so a snapshot is only used for the files it was compiled from
+     * 
+     * @param config The config file
+     * @param files The command files
+     * @param version The version of the plugin, since a newer version may compile the same files differently
+     * @return The 64 bit FNV-1a hash of the files
+     * @throws IOException If a file couldn't be read
+     */
+    public static long key(Path config, CommandFiles files, String version) throws IOException{
+        long hash = hash(0xcbf29ce484222325L, (VERSION+" "+version).getBytes(StandardCharsets.UTF_8));
+        hash = hash(hash, Files.readAllBytes(config));
+        for(Path path : files.list()){
+            hash = hash(hash, files.getName(path).getBytes(StandardCharsets.UTF_8));
+            hash = hash(hash, Files.readAllBytes(path));
+        }
+        return hash;
+    }
+
+    /**
+     * Adds bytes to a hash, ended by their length so neighbouring files can't run together
+     * 
+     * @param hash The hash so far
+     * @param bytes The bytes to add
+     * @return The new hash
+     */
+    private static long hash(long hash, byte[] bytes){
+        for(byte b : bytes){
+            hash ^= b&0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= bytes.length;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * Reads the snapshot in a file if it has the given key
+     * 
+     * @param file The snapshot file
+     * @param key The key of the config files the snapshot has to be compiled from
+     * @return The snapshot, null if there is none or it's for other files
+     * @throws IOException If the file couldn't be read or is damaged
+     */
+    public static TreeSnapshot read(Path file, long key) throws IOException{
+
+        // Read the whole file onto the heap instead of mapping it, a mapping would keep the file open until collected and stop it being replaced on Windows
+        try{
+            return read(ByteBuffer.wrap(Files.readAllBytes(file)), key, "The snapshot "+file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #toBytes(long)} if it has the given key
+     * 
+     * @param buffer The buffer holding only the snapshot
+     * @param key The key the snapshot has to have
+     * @param source What the snapshot was read from for the error
+     * @return The snapshot, null if it has another key or isn't a snapshot of this version
+     * @throws IOException If the snapshot is damaged
+     */
+    static TreeSnapshot read(ByteBuffer buffer, long key, String source) throws IOException{
+        try{
+            if(buffer.remaining()<24 || buffer.getInt()!=MAGIC || buffer.getInt()!=VERSION || buffer.getLong()!=key)
+                return null;
+
+            // Check the rest wasn't damaged before trusting any of its offsets
+            long checksum = buffer.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if(crc.getValue()!=checksum)
+                throw new IOException(source+" is damaged");
+            TreeSnapshot snapshot = new TreeSnapshot(buffer);
+            if(buffer.hasRemaining() || !snapshot.isIntact())
+                throw new IOException(source+" is damaged");
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(source+" is damaged", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file
+     * 
+     * @param file The snapshot file
+     * @param key The key of the config files the commands were compiled from
+     * @throws IOException If the file couldn't be written
+     */
+    public void write(Path file, long key) throws IOException{
+
+        // Replace the file all at once so it's never read half written
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try{
+            Files.write(temp, this.toBytes(key));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+    }
+
+    /**
+     * Writes the snapshot to bytes
+     * 
+     * @param key The key of the config files the commands were compiled from
+     * @return The snapshot as it's written to a file
+     * @throws IOException If the snapshot couldn't be written
+     */
+    byte[] toBytes(long key) throws IOException{
+
+        // Write every array
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64+this.strings.length*16+this.flags.length*64);
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(this.strings.length);
+            for(String string : this.strings)
+                writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+            writeInts(out, this.nameStarts);
+            writeInts(out, this.nameStrings);
+            writeInts(out, this.commandStarts);
+            writeInts(out, this.commandStrings);
+            writeInts(out, this.childStarts);
+            out.writeInt(this.flags.length);
+            for(short flag : this.flags)
+                out.writeShort(flag);
+            writeInts(out, this.permissions);
+            writeInts(out, this.descriptions);
+            writeInts(out, this.bypassPermissions);
+            writeInts(out, this.whens);
+            writeLongs(out, this.queueCooldowns);
+            writeLongs(out, this.cooldowns);
+            writeInts(out, this.maxPerMinute);
+            writeLongs(out, this.hashes);
+            writeBytes(out, this.settings.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Put a header in front with a checksum of the arrays so a damaged file is never trusted
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer snapshot = ByteBuffer.allocate(24+data.length);
+        snapshot.putInt(MAGIC).putInt(VERSION).putLong(key).putLong(crc.getValue()).put(data);
+        return snapshot.array();
+
+    }
+
+    /**
+     * Writes bytes after their length
+     * 
+     * @param out The stream to write to
+     * @param bytes The bytes
+     * @throws IOException If the stream couldn't be written
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException{
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an array after its length
+     * 
+     * @param out The stream to write to
+     * @param values The array
+     * @throws IOException If the stream couldn't be written
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException{
+        out.writeInt(values.length);
+        for(int value : values)
+            out.writeInt(value);
+    }
+
+    /**
+     * Writes an array after its length
+     * 
+     * @param out The stream to write to
+     * @param values The array
+     * @throws IOException If the stream couldn't be written
+     */
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException{
+        out.writeInt(values.length);
+        for(long value : values)
+            out.writeLong(value);
+    }
+
+    /**
+     * Reads the length of an array, checking the buffer has enough left for it
+     * 
+     * @param buffer The buffer to read from
+     * @param size The bytes of each element of the array
+     * @return the length
+     * @throws BufferUnderflowException If the length is more than the buffer has left
+     */
+    private static int readLength(ByteBuffer buffer, int size){
+        int length = buffer.getInt();
+        if(length<0 || length>buffer.remaining()/size)
+            throw new BufferUnderflowException();
+        return length;
+    }
+
+    /**
+     * Reads bytes written by {@link #writeBytes(DataOutputStream, byte[])}
+     * 
+     * @param buffer The buffer to read from
+     * @return the bytes
+     */
+    private static byte[] readBytes(ByteBuffer buffer){
+        byte[] bytes = new byte[readLength(buffer, 1)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an array written by {@link #writeInts(DataOutputStream, int[])}
+     * 
+     * @param buffer The buffer to read from
+     * @return the array
+     */
+    private static int[] readInts(ByteBuffer buffer){
+        int[] values = new int[readLength(buffer, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position()+4*values.length);
+        return values;
+    }
+
+    /**
+     * Reads an array written by {@link #writeLongs(DataOutputStream, long[])}
+     * 
+     * @param buffer The buffer to read from
+     * @return the array
+     */
+    private static long[] readLongs(ByteBuffer buffer){
+        long[] values = new long[readLength(buffer, 8)];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position()+8*values.length);
+        return values;
+    }
+
+    /**
+     * Compiles the commands of the snapshot
+     * 
+     * @return The commands
+     * @throws InvalidConfigurationException If the commands in the snapshot are invalid
+     */
+    public CommandTree getCommands() throws InvalidConfigurationException{
+        CommandData[] commands = new CommandData[this.hashes.length];
+        for(int i=0;i<commands.length;i++)
+            commands[i] = new CommandData(this, i, true);
+        return new CommandTree(commands, this.hashes);
+    }
+
+    /**
+     * Compiles the commands of a snapshot of the top commands that changed on top of a snapshot of the commands before the change
+     * 
+     * @param order Where each top command after the change is in config order, the row of an unchanged top command in the base or -1 minus the row of a changed one in this snapshot
+     * @param base The snapshot of the commands before the change
+     * @return The commands, null if a top command is in neither snapshot
+     * @throws InvalidConfigurationException If the commands in the snapshots are invalid
+     */
+    CommandTree merge(int[] order, TreeSnapshot base) throws InvalidConfigurationException{
+        CommandData[] commands = new CommandData[order.length];
+        long[] hashes = new long[order.length];
+        for(int i=0;i<order.length;i++){
+            int node = order[i];
+            if(node>=0 ? node>=base.hashes.length : -node-1>=this.hashes.length)
+                return null;
+            commands[i] = node>=0 ? new CommandData(base, node, true) : new CommandData(this, -node-1, true);
+            hashes[i] = node>=0 ? base.hashes[node] : this.hashes[-node-1];
+        }
+        return new CommandTree(commands, hashes);
+    }
+
+    /**
+     * Gets the other settings of the config the commands were compiled with
+     * 
+     * @return The config without its commands section
+     * @throws InvalidConfigurationException If the settings aren't valid YAML
+     */
+    public YamlConfiguration getSettings() throws InvalidConfigurationException{
+        YamlConfiguration settings = new YamlConfiguration();
+        settings.loadFromString(this.settings);
+        return settings;
+    }
+
+    /**
+     * Gets a string of the string table
+     * 
+     * @param index The index of the string, -1 for null
+     * @return the string, null for -1
+     */
+    private String getString(int index){
+        return index<0 ? null : this.strings[index];
+    }
+
+    /**
+     * Gets a run of strings of the string table
+     * 
+     * @param indices The indices of the strings
+     * @param start The first index to get
+     * @param end The index after the last index to get
+     * @return the strings
+     */
+    private String[] getStrings(int[] indices, int start, int end){
+        String[] strings = new String[end-start];
+        for(int i=start;i<end;i++)
+            strings[i-start] = this.strings[indices[i]];
+        return strings;
+    }
+
+    /**
+     * Gets the names of a command
+     * 
+     * @param node The row of the command
+     * @return the names
+     */
+    String[] getNames(int node){
+        return this.getStrings(this.nameStrings, this.nameStarts[node], this.nameStarts[node+1]);
+    }
+
+    /**
+     * Gets the new commands of a command
+     * 
+     * @param node The row of the command
+     * @return the new commands
+     */
+    String[] getNewCommands(int node){
+        return this.getStrings(this.commandStrings, this.commandStarts[node], this.commandStarts[node+1]);
+    }
+
+    /**
+     * Gets the first sub command of a command
+     * 
+     * @param node The row of the command
+     * @return the first child
+     */
+    int getFirstChild(int node){
+        return this.childStarts[node];
+    }
+
+    /**
+     * Gets the number of sub commands of a command
+     * 
+     * @param node The row of the command
+     * @return the child count
+     */
+    int getChildCount(int node){
+        return this.childStarts[node+1]-this.childStarts[node];
+    }
+
+    /**
+     * Gets the flags of a command
+     * 
+     * @param node The row of the command
+     * @return the flags
+     */
+    short getFlags(int node){
+        return this.flags[node];
+    }
+
+    /**
+     * Gets the permission of a command
+     * 
+     * @param node The row of the command
+     * @return the permission
+     */
+    String getPermission(int node){
+        return this.getString(this.permissions[node]);
+    }
+
+    /**
+     * Gets the description of a command
+     * 
+     * @param node The row of the command
+     * @return the description
+     */
+    String getDescription(int node){
+        return this.getString(this.descriptions[node]);
+    }
+
+    /**
+     * Gets the bypass permission of a command
+     * 
+     * @param node The row of the command
+     * @return the bypass permission
+     */
+    String getBypassPermission(int node){
+        return this.getString(this.bypassPermissions[node]);
+    }
+
+    /**
+     * Gets the when expression of a command
+     * 
+     * @param node The row of the command
+     * @return the when expression, null if none
+     */
+    String getWhen(int node){
+        return this.getString(this.whens[node]);
+    }
+
+    /**
+     * Gets the queue cooldown of a command
+     * 
+     * @param node The row of the command
+     * @return the queue cooldown
+     */
+    long getQueueCooldown(int node){
+        return this.queueCooldowns[node];
+    }
+
+    /**
+     * Gets the cooldown of a command
+     * 
+     * @param node The row of the command
+     * @return the cooldown
+     */
+    long getCooldown(int node){
+        return this.cooldowns[node];
+    }
+
+    /**
+     * Gets the max per minute of a command
+     * 
+     * @param node The row of the command
+     * @return the max per minute
+     */
+    int getMaxPerMinute(int node){
+        return this.maxPerMinute[node];
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.cuddletheif.commandmanager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the command names hidden from each player until their permissions or the commands change
+ */
+public class VisibilityCache {
+
+    // The cached names of each player by their id
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the lower cased names of every command hidden from a player with the given permissions
+     * 
+     * @param id The id of the player the commands are sent to
+     * @param perms The up to date permissions of the player
+     * @param commands The commands the permissions are for
+     * @return The names to remove from the player's commands
+     */
+    public Set<String> getHiddenNames(UUID id, PermissionSnapshot perms, CommandTree commands){
+
+        // Use the cached names if neither the commands nor the fingerprint of the player's permissions changed since they were found
+        Entry entry = this.entries.get(id);
+        if(entry!=null && entry.commands==commands && entry.fingerprint==perms.getFingerprint())
+            return entry.hiddenNames;
+
+        // Find every name hidden from the player
+        Set<String> hiddenNames = new HashSet<>();
+        for(CommandData cmd : commands.getCommands())
+            if(cmd.isHidden(perms))
+                for(String name : cmd.getNames())
+                    hiddenNames.add(name.toLowerCase(Locale.ROOT));
+
+        // Cache them for the next time the commands are sent
+        entry = new Entry(commands, perms.getFingerprint(), Collections.unmodifiableSet(hiddenNames));
+        this.entries.put(id, entry);
+        return entry.hiddenNames;
+
+    }
+
+    /**
+     * Removes the cached names of a player
+     * 
+     * @param id The id of the player
+     */
+    public void invalidate(UUID id){
+        this.entries.remove(id);
+    }
+
+    /**
+     * Removes the cached names of every player
+     */
+    public void clear(){
+        this.entries.clear();
+    }
+
+    /**
+     * The hidden names of a player and what they were found with
+     */
+    private static class Entry {
+
+        private final CommandTree commands;
+        private final long fingerprint;
+        private final Set<String> hiddenNames;
+
+        private Entry(CommandTree commands, long fingerprint, Set<String> hiddenNames){
+            this.commands = commands;
+            this.fingerprint = fingerprint;
+            this.hiddenNames = hiddenNames;
+        }
+
+    }
+
+}